@@ -0,0 +1,336 @@
+package audio;
+
+/**
+ * This class holds the result of the analysis of one sound sample: its amplitude and its bass and treble spectrums, along with their recent levels.
+ * Frames are preallocated by the AudioPlayer and handed to the other threads through a TripleBuffer, so a frame never changes
+ * while the thread that acquired it is reading it. It must however not be kept once the same thread acquires a newer frame.
+ */
+public class AnalysisFrame {
+
+	/**
+	 * a frame that is never published, containing silence. Used when no sound is loaded
+	 */
+	public static final AnalysisFrame SILENCE = new AnalysisFrame();
+
+	/**
+	 * the number of frames published before this one
+	 */
+	private long index;
+	/**
+	 * the position, in sample frames, of the end of this sound sample in the sound
+	 */
+	private long samplePosition;
+	/**
+	 * the time, in nanoseconds (System.nanoTime()), at which this frame was captured. Equals 0 for silence
+	 */
+	private long captureTime;
+	/**
+	 * the sample rate of the analyzed sound
+	 */
+	private float sampleRate;
+	/**
+	 * the spectral flux of the sound sample (how much its spectrum grew since the previous sound sample)
+	 */
+	private float flux;
+	/**
+	 * whether an onset (a beat) was detected in the sound sample
+	 */
+	private boolean onset;
+	/**
+	 * the time, in seconds, since the last onset
+	 */
+	private double timeSinceOnset = Double.MAX_VALUE;
+	/**
+	 * the width, in Hertz, of each frequency band of the bass spectrum
+	 */
+	private float bassBandWidth;
+	/**
+	 * the width, in Hertz, of each frequency band of the treble spectrum
+	 */
+	private float trebleBandWidth;
+	/**
+	 * the mean of the absolute values of the samples of the sound sample
+	 */
+	private float amplitude;
+	/**
+	 * the root mean square of the samples of the sound sample
+	 */
+	private float rms;
+	/**
+	 * the biggest absolute value of the samples of the sound sample
+	 */
+	private float peak;
+	/**
+	 * the mean amplitude, RMS and peak mapped from their recent range to 0-1 by the LevelNormalizer
+	 */
+	private float normalizedAmplitude, normalizedRms, normalizedPeak;
+	/**
+	 * the recent floor and ceiling of each band of the LevelNormalizer
+	 */
+	private final float[] bandFloors = new float[LevelNormalizer.BAND_COUNT], bandCeilings = new float[LevelNormalizer.BAND_COUNT];
+	/**
+	 * the amplitude of each frequency band of the bass spectrum. Used under MultiResolutionAnalyzer.CROSSOVER_FREQ
+	 */
+	private final float[] bassSpectrum = new float[MultiResolutionAnalyzer.BASS_SIZE / 2 + 1];
+	/**
+	 * the amplitude of each frequency band of the treble spectrum. Used over MultiResolutionAnalyzer.CROSSOVER_FREQ
+	 */
+	private final float[] trebleSpectrum = new float[MultiResolutionAnalyzer.TREBLE_SIZE / 2 + 1];
+
+	/**
+	 * constructs an empty frame (silence)
+	 */
+	public AnalysisFrame() {
+	}
+
+	/**
+	 * copies a freshly analyzed sound sample in this frame. Only called from the audio thread, on a frame that is not published
+	 * @param index the number of frames published before this one
+	 * @param samplePosition the position, in sample frames, of the end of the sound sample
+	 * @param amplitude the mean of the absolute values of the samples
+	 * @param rms the root mean square of the samples
+	 * @param peak the biggest absolute value of the samples
+	 * @param analyzer the analyzer that just analyzed the sound sample
+	 */
+	void capture(long index, long samplePosition, float amplitude, float rms, float peak, MultiResolutionAnalyzer analyzer) {
+		this.index = index;
+		this.samplePosition = samplePosition;
+		captureTime = System.nanoTime();
+		this.amplitude = amplitude;
+		this.rms = rms;
+		this.peak = peak;
+		sampleRate = analyzer.getSampleRate();
+		bassBandWidth = analyzer.getBassBandWidth();
+		trebleBandWidth = analyzer.getTrebleBandWidth();
+		flux = analyzer.getOnsetDetector().getFlux();
+		onset = analyzer.getOnsetDetector().isOnset();
+		timeSinceOnset = analyzer.getOnsetDetector().getTimeSinceOnset();
+
+		System.arraycopy(analyzer.getBassSpectrum(), 0, bassSpectrum, 0, bassSpectrum.length);
+		System.arraycopy(analyzer.getTrebleSpectrum(), 0, trebleSpectrum, 0, trebleSpectrum.length);
+	}
+
+	/**
+	 * copies the levels measured by the LevelNormalizer in this frame. Only called from the audio thread, on a frame that is not published
+	 * @param bandFloors the recent floor of each band
+	 * @param bandCeilings the recent ceiling of each band
+	 * @param normalizedAmplitude the normalized mean amplitude
+	 * @param normalizedRms the normalized RMS
+	 * @param normalizedPeak the normalized peak
+	 */
+	void captureLevels(float[] bandFloors, float[] bandCeilings, float normalizedAmplitude, float normalizedRms, float normalizedPeak) {
+		System.arraycopy(bandFloors, 0, this.bandFloors, 0, this.bandFloors.length);
+		System.arraycopy(bandCeilings, 0, this.bandCeilings, 0, this.bandCeilings.length);
+		this.normalizedAmplitude = normalizedAmplitude;
+		this.normalizedRms = normalizedRms;
+		this.normalizedPeak = normalizedPeak;
+	}
+
+	/**
+	 * @return the number of frames published before this one
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the position, in sample frames, of the end of this sound sample in the sound
+	 */
+	public long getSamplePosition() {
+		return samplePosition;
+	}
+
+	/**
+	 * @return the time, in nanoseconds (System.nanoTime()), at which this frame was captured, or 0 for silence
+	 */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	/**
+	 * @return the time, in seconds, of the end of this sound sample in the sound
+	 */
+	public double getTime() {
+		return sampleRate == 0? 0: samplePosition / (double) sampleRate;
+	}
+
+	/**
+	 * @return the amplitude (mean of the absolute values of the samples) of this sound sample. Ranges from 0 to 1
+	 */
+	public float getAmplitude() {
+		return amplitude;
+	}
+
+	/**
+	 * @return the root mean square of the samples of this sound sample. Ranges from 0 to 1
+	 */
+	public float getRms() {
+		return rms;
+	}
+
+	/**
+	 * @return the biggest absolute value of the samples of this sound sample. Ranges from 0 to 1
+	 */
+	public float getPeak() {
+		return peak;
+	}
+
+	/**
+	 * @return the amplitude of this sound sample compared to the last few seconds. Ranges from 0 to 1
+	 */
+	public float getNormalizedAmplitude() {
+		return normalizedAmplitude;
+	}
+
+	/**
+	 * @return the root mean square of this sound sample compared to the last few seconds. Ranges from 0 to 1
+	 */
+	public float getNormalizedRms() {
+		return normalizedRms;
+	}
+
+	/**
+	 * @return the peak of this sound sample compared to the last few seconds. Ranges from 0 to 1
+	 */
+	public float getNormalizedPeak() {
+		return normalizedPeak;
+	}
+
+	/**
+	 * @return the spectral flux of this sound sample (how much its spectrum grew since the previous sound sample)
+	 */
+	public float getFlux() {
+		return flux;
+	}
+
+	/**
+	 * @return whether an onset (a beat) was detected in this sound sample
+	 */
+	public boolean isOnset() {
+		return onset;
+	}
+
+	/**
+	 * @return the time, in seconds, since the last onset (0 if the onset is in this sound sample)
+	 */
+	public double getTimeSinceOnset() {
+		return timeSinceOnset;
+	}
+
+	/**
+	 * @return the sample rate of the analyzed sound
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * returns the average amplitude of the frequencies within a range. The bass spectrum is used under the crossover frequency
+	 * and the treble spectrum over it. A range containing the crossover frequency gets the average of both parts, weighted by their widths
+	 * @param lowFreq the lower bound of the frequency range, in Hertz
+	 * @param hiFreq the higher bound of the frequency range, in Hertz
+	 * @return the average amplitude of the frequencies within the range
+	 */
+	public float calcAvg(float lowFreq, float hiFreq) {
+		float crossover = MultiResolutionAnalyzer.CROSSOVER_FREQ;
+		if(hiFreq <= crossover) {
+			return averageBass(bassIndex(lowFreq), bassIndex(hiFreq));
+		}
+		if(lowFreq >= crossover) {
+			return averageTreble(trebleIndex(lowFreq), trebleIndex(hiFreq));
+		}
+		float bass = averageBass(bassIndex(lowFreq), bassIndex(crossover));
+		float treble = averageTreble(trebleIndex(crossover), trebleIndex(hiFreq));
+		return (bass * (crossover - lowFreq) + treble * (hiFreq - crossover)) / (hiFreq - lowFreq);
+	}
+
+	/**
+	 * returns the average amplitude of the frequencies within a range, compared to the recent range of the same frequencies
+	 * @param lowFreq the lower bound of the frequency range, in Hertz
+	 * @param hiFreq the higher bound of the frequency range, in Hertz
+	 * @return the normalized average amplitude. Ranges from 0 to 1
+	 */
+	public float calcNormalizedAvg(float lowFreq, float hiFreq) {
+		return normalizeBands(LevelNormalizer.getBandIndex(lowFreq), LevelNormalizer.getBandIndex(hiFreq), calcAvg(lowFreq, hiFreq));
+	}
+
+	/**
+	 * maps a value from the recent range of some bands of the LevelNormalizer to 0-1
+	 * @param lowBand the index of the first band
+	 * @param hiBand the index of the last band
+	 * @param value the average amplitude of the frequencies covered by the bands
+	 * @return the normalized value. Ranges from 0 to 1
+	 */
+	public float normalizeBands(int lowBand, int hiBand, float value) {
+		float floor = 0, ceiling = 0;
+		for(int i = lowBand; i <= hiBand; i++) {
+			floor += bandFloors[i];
+			ceiling += bandCeilings[i];
+		}
+		if(ceiling <= floor) return 0; //No level measured yet
+		return Math.max(0, Math.min(1, (value - floor / (hiBand - lowBand + 1)) / ((ceiling - floor) / (hiBand - lowBand + 1))));
+	}
+
+	/**
+	 * @param lowIndex the index of the first band of the bass spectrum to average
+	 * @param hiIndex the index of the last band of the bass spectrum to average
+	 * @return the average amplitude of the bass spectrum bands between both indexes, inclusive
+	 */
+	public float averageBass(int lowIndex, int hiIndex) {
+		return average(bassSpectrum, lowIndex, hiIndex);
+	}
+
+	/**
+	 * @param lowIndex the index of the first band of the treble spectrum to average
+	 * @param hiIndex the index of the last band of the treble spectrum to average
+	 * @return the average amplitude of the treble spectrum bands between both indexes, inclusive
+	 */
+	public float averageTreble(int lowIndex, int hiIndex) {
+		return average(trebleSpectrum, lowIndex, hiIndex);
+	}
+
+	/**
+	 * same as FFT.freqToIndex, but for the bass spectrum held by this frame
+	 * @param freq the frequency, in Hertz
+	 * @return the index of the band of the bass spectrum that contains the frequency
+	 */
+	public int bassIndex(float freq) {
+		return freqToIndex(bassSpectrum, bassBandWidth, freq);
+	}
+
+	/**
+	 * same as FFT.freqToIndex, but for the treble spectrum held by this frame
+	 * @param freq the frequency, in Hertz
+	 * @return the index of the band of the treble spectrum that contains the frequency
+	 */
+	public int trebleIndex(float freq) {
+		return freqToIndex(trebleSpectrum, trebleBandWidth, freq);
+	}
+
+	/**
+	 * @param spectrum the spectrum
+	 * @param lowIndex the index of the first band to average
+	 * @param hiIndex the index of the last band to average
+	 * @return the average amplitude of the bands between both indexes, inclusive
+	 */
+	private static float average(float[] spectrum, int lowIndex, int hiIndex) {
+		float avg = 0;
+		for(int i = lowIndex; i <= hiIndex; i++) {
+			avg += spectrum[i];
+		}
+		return avg / (hiIndex - lowIndex + 1);
+	}
+
+	/**
+	 * same as FFT.freqToIndex, but for one of the spectrums held by this frame
+	 * @param spectrum the spectrum
+	 * @param bandWidth the width, in Hertz, of each frequency band of the spectrum
+	 * @param freq the frequency, in Hertz
+	 * @return the index of the frequency band that contains the frequency
+	 */
+	private static int freqToIndex(float[] spectrum, float bandWidth, float freq) {
+		if(freq < bandWidth / 2) return 0;
+		if(freq > (spectrum.length - 1) * bandWidth - bandWidth / 2) return spectrum.length - 1;
+		return Math.round(freq / bandWidth);
+	}
+}
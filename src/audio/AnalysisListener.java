@@ -0,0 +1,14 @@
+package audio;
+
+/**
+ * Interface implemented by the objects that need to see every analysis frame, at the rate the sound is analyzed.
+ * The listener is called from the audio thread, right before the frame is published to the other threads, so it must return quickly
+ */
+public interface AnalysisListener {
+
+	/**
+	 * called from the audio thread each time a sound sample has been analyzed
+	 * @param frame the analysis frame of the sound sample. Must not be kept after this method returns
+	 */
+	public void frameAnalyzed(AnalysisFrame frame);
+}
@@ -6,8 +6,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 
-import javafx.application.Platform;
-
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
@@ -18,12 +16,11 @@ import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import nodes.MainStage;
-import ddf.minim.analysis.FFT;
 
 /**
  * This class is responsible for the import and processing of the audio file.
  * In addition, it adds an easy way to play, pause, skip and set the volume of the sound playing.
- * It uses a buffer to load the sound part by part so that the FFT class can process the audio input in pieces.
+ * It uses a buffer to load the sound part by part so that the MultiResolutionAnalyzer class can process the audio input in pieces.
  */
 public class AudioPlayer implements Runnable {
 
@@ -96,10 +93,33 @@ public class AudioPlayer implements Runnable {
 	private Thread thread;
 	
 	/**
-	 * the FFT (stand for Fast Fourier Transform). Used to calculate the amplitude of the frequencies of the sound
+	 * the analyzer running the FFTs (stands for Fast Fourier Transform). Used to calculate the amplitude of the frequencies of the sound
 	 */
-	private FFT fft;
-
+	private MultiResolutionAnalyzer analyzer;
+	/**
+	 * the object measuring the recent range of the amplitude and of the frequency bands
+	 */
+	private LevelNormalizer normalizer;
+	/**
+	 * the analysis frames published by the audio thread. The frames are read from the JavaFX Application thread
+	 */
+	private TripleBuffer<AnalysisFrame> frames = new TripleBuffer<AnalysisFrame>(new AnalysisFrame(), new AnalysisFrame(), new AnalysisFrame());
+	/**
+	 * the number of analysis frames published so far
+	 */
+	private long framesPublished = 0;
+	/**
+	 * the object called from the audio thread each time a sound sample has been analyzed. Equals null if there is none
+	 */
+	private volatile AnalysisListener analysisListener;
+	/**
+	 * whether the sound samples are analyzed by the FFTs. Disabled while the project is baked
+	 */
+	private volatile boolean analysisEnabled = true;
+	/**
+	 * whether the sound skipped since the last sound sample. The audio thread then resets the analyzer and the normalizer before the next one
+	 */
+	private volatile boolean analysisResetPending = false;
 	/**
 	 * constructs a new audio player with a sound file
 	 * @param soundFile the audio file to play
@@ -149,7 +169,8 @@ public class AudioPlayer implements Runnable {
 		if(audioFormat.getSampleSizeInBits() / 8 != 2) //Currently supports only if the sample size is 2 bytes (for little and big endian)
 			throw new UnsupportedAudioFileException();
 		
-		fft = new FFT(BUFFER_SIZE, audioFormat.getSampleRate());
+		analyzer = new MultiResolutionAnalyzer(audioFormat.getSampleRate());
+		normalizer = new LevelNormalizer(audioFormat.getSampleRate(), BUFFER_SIZE);
 		
 		thread = new Thread(this);
 		thread.start();
@@ -220,6 +241,7 @@ public class AudioPlayer implements Runnable {
 	 */
 	public void setProgression(float progression) {
 		this.progression = progression;
+		analysisResetPending = true; //The history of the analysis belongs to the previous position. Reset from the audio thread, which owns it
 		try {
 			loadAudioFile();
 			
@@ -261,6 +283,7 @@ public class AudioPlayer implements Runnable {
 		buffer = new byte[BUFFER_SIZE * audioFormat.getFrameSize()];
 		while(!Thread.interrupted()) {
 			if(playing) {
+				float absSum = 0, squareSum = 0, peak = 0;
 				try {
 					nBytesRead = audioInputStream.read(buffer, 0, buffer.length);
 					
@@ -273,16 +296,42 @@ public class AudioPlayer implements Runnable {
 					
 					totalBytesRead += nBytesRead;
 					
+					//Mix the channels and measure the amplitude in the same pass
 					for(int i = 0; i < BUFFER_SIZE; i++) {
 						float avg = getSampleMix(i * audioFormat.getFrameSize());
 						mixBuffer[i] = avg;
+						
+						float abs = Math.abs(avg);
+						absSum += abs;
+						squareSum += avg * avg;
+						if(abs > peak) peak = abs;
 					}
 	
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
 				
-				fft.forward(mixBuffer);
+				if(analysisResetPending) {
+					analysisResetPending = false;
+					analyzer.reset();
+					normalizer.reset();
+				}
+				if(analysisEnabled) {
+					analyzer.analyze(mixBuffer);
+				}
+				
+				//Publish the analyzed sample so that the other threads never read a half updated buffer
+				AnalysisFrame frame = frames.getWriteBuffer();
+				frame.capture(framesPublished++, totalBytesRead / audioFormat.getFrameSize(),
+						absSum / BUFFER_SIZE, (float) Math.sqrt(squareSum / BUFFER_SIZE), peak, analyzer);
+				if(analysisEnabled) {
+					normalizer.process(frame);
+				}
+				AnalysisListener listener = analysisListener;
+				if(listener != null) {
+					listener.frameAnalyzed(frame);
+				}
+				frames.publish();
 				
 				//Update the volume
 				if(volume == 0 || muted) {
@@ -296,13 +345,6 @@ public class AudioPlayer implements Runnable {
 				
 				//Calculate the progress of the song
 				progression = totalBytesRead * 1.0 / soundBytes.length;
-				
-				Platform.runLater(new Runnable() { //Only way to modify the GUI from another thread than the Application thread
-				    @Override
-				    public void run() {
-				    	MainStage.getInstance().update();
-				    }
-				});
 			}
 		}
 	}
@@ -313,6 +355,17 @@ public class AudioPlayer implements Runnable {
 	 * @return the sample mix
 	 */
 	private float getSampleMix(int index) {
+		return getSampleMix(buffer, index, audioFormat);
+	}
+	
+	/**
+	 * mixes all channels of a sample frame in to a float, taking care of the big and little endian conversions
+	 * @param buffer the bytes of the sound
+	 * @param index the index of the first byte of the sample frame
+	 * @param audioFormat the format of the sound. The samples must be 2 bytes long
+	 * @return the sample mix
+	 */
+	static float getSampleMix(byte[] buffer, int index, AudioFormat audioFormat) {
 		float avg = 0;
 		
 		for(int i = 0; i < audioFormat.getChannels() * 2; i += 2) {
@@ -330,14 +383,25 @@ public class AudioPlayer implements Runnable {
 	}
 	
 	/**
-	 * @return the amplitude of the current sound sample
+	 * @return the amplitude (mean of the absolute values of the samples) of the current sound sample
 	 */
 	public float getAmplitude() {
-		float sum = 0;
-		for(int i = 0; i < BUFFER_SIZE; i++) {
-			sum += Math.abs(mixBuffer[i]);
-		}
-		return sum / BUFFER_SIZE;
+		return getFrame().getAmplitude();
+	}
+	
+	/**
+	 * returns the last analysis frame published by the audio thread. Must only be called from the JavaFX Application thread
+	 * @return the last analysis frame
+	 */
+	public AnalysisFrame getFrame() {
+		return frames.acquire();
+	}
+	
+	/**
+	 * @return whether the audio thread published a frame since the last call to getFrame(). Must only be called from the JavaFX Application thread
+	 */
+	public boolean hasNewFrame() {
+		return frames.hasNewData();
 	}
 	
 	/**
@@ -348,10 +412,27 @@ public class AudioPlayer implements Runnable {
 	}
 	
 	/**
-	 * @return the fast fourier transform object
+	 * sets the object called from the audio thread each time a sound sample has been analyzed
+	 * @param analysisListener the new listener (null to remove the current one)
+	 */
+	public void setAnalysisListener(AnalysisListener analysisListener) {
+		this.analysisListener = analysisListener;
+	}
+	
+	/**
+	 * sets whether the sound samples are analyzed. Without analysis, the published frames only hold the position and amplitude of the sound,
+	 * which is all a baked project needs
+	 * @param analysisEnabled true to run the FFTs on every sound sample
+	 */
+	public void setAnalysisEnabled(boolean analysisEnabled) {
+		this.analysisEnabled = analysisEnabled;
+	}
+	
+	/**
+	 * @return the analyzer running the fast fourier transforms
 	 */
-	public FFT getFft() {
-		return fft;
+	public MultiResolutionAnalyzer getAnalyzer() {
+		return analyzer;
 	}
 	
 	/**
@@ -0,0 +1,125 @@
+package audio;
+
+/**
+ * This class keeps track of the recent range of the amplitude and of each frequency band of the sound, so that the reactions
+ * can react to how loud the sound is compared to the last few seconds instead of compared to a fixed maximum.
+ * The spectrum is split in BAND_COUNT logarithmically spaced bands (about a third of an octave each) and each band, as well as
+ * the mean, RMS and peak amplitudes, keeps a RunningRange over the last WINDOW_TIME seconds.
+ * A quiet master and a loud master of the same song therefore make the shapes move the same way.
+ */
+public class LevelNormalizer {
+
+	/**
+	 * the number of frequency bands whose range is tracked
+	 */
+	public static final int BAND_COUNT = 30;
+	/**
+	 * the lower bound, in Hertz, of the first band
+	 */
+	public static final float MIN_FREQ = 20;
+	/**
+	 * the higher bound, in Hertz, of the last band
+	 */
+	public static final float MAX_FREQ = 20000;
+	/**
+	 * the duration, in seconds, of the window over which the ranges are measured
+	 */
+	private static final float WINDOW_TIME = 10;
+	/**
+	 * the smallest range given to a frequency band, so that the noise of a silent part is not stretched to the full range
+	 */
+	private static final float MIN_BAND_RANGE = 1;
+	/**
+	 * the smallest range given to the amplitudes, for the same reason
+	 */
+	private static final float MIN_LEVEL_RANGE = 0.01f;
+
+	/**
+	 * the range of each frequency band
+	 */
+	private RunningRange[] bandRanges = new RunningRange[BAND_COUNT];
+	/**
+	 * the range of the mean, RMS and peak amplitudes
+	 */
+	private RunningRange amplitudeRange, rmsRange, peakRange;
+	/**
+	 * the floor and ceiling of each frequency band after the last process() call. The ceiling is always over the floor
+	 */
+	private float[] bandFloors = new float[BAND_COUNT], bandCeilings = new float[BAND_COUNT];
+
+	/**
+	 * constructs a level normalizer for a sound analyzed in hops of the given size
+	 * @param sampleRate the sample rate of the sound
+	 * @param hopSamples the number of samples between two analysis frames
+	 */
+	public LevelNormalizer(float sampleRate, int hopSamples) {
+		int capacity = Math.round(WINDOW_TIME * sampleRate / hopSamples);
+		for(int i = 0; i < BAND_COUNT; i++) {
+			bandRanges[i] = new RunningRange(capacity);
+		}
+		amplitudeRange = new RunningRange(capacity);
+		rmsRange = new RunningRange(capacity);
+		peakRange = new RunningRange(capacity);
+	}
+
+	/**
+	 * adds a freshly captured frame to the ranges, then writes the normalized levels in the frame. Only called from the thread that captured the frame
+	 * @param frame the frame, before it is published
+	 */
+	public void process(AnalysisFrame frame) {
+		for(int i = 0; i < BAND_COUNT; i++) {
+			bandRanges[i].add(frame.calcAvg(getBandEdge(i), getBandEdge(i + 1)));
+			bandFloors[i] = bandRanges[i].getMin();
+			bandCeilings[i] = Math.max(bandRanges[i].getMax(), bandFloors[i] + MIN_BAND_RANGE);
+		}
+		amplitudeRange.add(frame.getAmplitude());
+		rmsRange.add(frame.getRms());
+		peakRange.add(frame.getPeak());
+
+		frame.captureLevels(bandFloors, bandCeilings,
+				normalize(frame.getAmplitude(), amplitudeRange),
+				normalize(frame.getRms(), rmsRange),
+				normalize(frame.getPeak(), peakRange));
+	}
+
+	/**
+	 * forgets the ranges measured so far, for example when the sound skips to another part: the levels of the previous part would be compared to the new one
+	 */
+	public void reset() {
+		for(int i = 0; i < BAND_COUNT; i++) {
+			bandRanges[i].reset();
+		}
+		amplitudeRange.reset();
+		rmsRange.reset();
+		peakRange.reset();
+	}
+
+	/**
+	 * @param value a value that was just added to the range
+	 * @param range the range
+	 * @return the value mapped from the range to 0-1
+	 */
+	private static float normalize(float value, RunningRange range) {
+		float floor = range.getMin();
+		float ceiling = Math.max(range.getMax(), floor + MIN_LEVEL_RANGE);
+		return Math.max(0, Math.min(1, (value - floor) / (ceiling - floor)));
+	}
+
+	/**
+	 * @param band the index of a band, from 0 to BAND_COUNT (the higher bound of the last band)
+	 * @return the lower bound, in Hertz, of the band
+	 */
+	public static float getBandEdge(int band) {
+		return (float) (MIN_FREQ * Math.pow(MAX_FREQ / MIN_FREQ, band / (double) BAND_COUNT));
+	}
+
+	/**
+	 * @param freq a frequency, in Hertz
+	 * @return the index of the band containing the frequency. Frequencies out of the bands go to the first or the last one
+	 */
+	public static int getBandIndex(float freq) {
+		if(freq <= MIN_FREQ) return 0;
+		int band = (int) (Math.log(freq / MIN_FREQ) / Math.log(MAX_FREQ / MIN_FREQ) * BAND_COUNT);
+		return Math.min(band, BAND_COUNT - 1);
+	}
+}
@@ -0,0 +1,235 @@
+package audio;
+
+import java.util.Arrays;
+
+import ddf.minim.analysis.FFT;
+
+/**
+ * This class analyzes the sound with two FFTs of different resolutions instead of a single one.
+ * The low frequencies are analyzed by a large FFT over a decimated copy of the sound, which gives a fine frequency resolution where the bass notes are.
+ * The high frequencies are analyzed by a short FFT run several times per sound sample, which keeps short hits such as hi-hats sharp in time.
+ * Because the bass FFT works on a decimated signal, both FFTs together cost about the same as the single 1024 samples FFT they replace.
+ * Before decimation, the sound goes through a windowed-sinc low-pass filter, so the frequencies above the new Nyquist frequency
+ * (hi-hats, cymbals, the harmonics of the voices) don't fold back into the bass bands.
+ */
+public class MultiResolutionAnalyzer {
+
+	/**
+	 * the number of samples analyzed by the bass FFT (after decimation)
+	 */
+	public static final int BASS_SIZE = 512;
+	/**
+	 * the factor by which the sound is decimated before being analyzed by the bass FFT
+	 */
+	public static final int BASS_DECIMATION = 8;
+	/**
+	 * the number of samples analyzed by the treble FFT. It is also the hop between two treble FFTs
+	 */
+	public static final int TREBLE_SIZE = 256;
+	/**
+	 * the frequency, in Hertz, under which the bass FFT is used and over which the treble FFT is used
+	 */
+	public static final float CROSSOVER_FREQ = 1000;
+	/**
+	 * the highest frequency, in Hertz, that the onset detector listens to. The kicks and the body of the snares are under it
+	 */
+	public static final float ONSET_MAX_FREQ = 250;
+	/**
+	 * the FFT size that the spectrums are scaled to, so that values stay comparable to the ones of a single 1024 samples FFT
+	 */
+	private static final int REFERENCE_SIZE = 1024;
+	/**
+	 * the number of coefficients of the anti-aliasing filter. Blackman windowed, it rejects the folding frequencies by more than 70 dB,
+	 * and its transition band (about 5.5 / FILTER_TAPS of the sample rate) ends well under the crossover once folded
+	 */
+	private static final int FILTER_TAPS = 16 * BASS_DECIMATION;
+	/**
+	 * the coefficients of the anti-aliasing filter, applied before decimation
+	 */
+	private static final float[] FILTER = createFilter();
+
+	/**
+	 * the FFT analyzing the decimated sound
+	 */
+	private FFT bassFft;
+	/**
+	 * the FFT analyzing the sound in short hops
+	 */
+	private FFT trebleFft;
+	/**
+	 * the onset detector, fed with the low bands of the bass spectrum
+	 */
+	private OnsetDetector onsetDetector;
+	/**
+	 * the last BASS_SIZE decimated samples, the oldest first
+	 */
+	private float[] bassHistory = new float[BASS_SIZE];
+	/**
+	 * the samples given to the bass FFT. The FFT applies its window in place, so the history is copied here first
+	 */
+	private float[] bassInput = new float[BASS_SIZE];
+	/**
+	 * the samples given to the treble FFT
+	 */
+	private float[] trebleInput = new float[TREBLE_SIZE];
+	/**
+	 * the bass spectrum of the last analyzed sound sample, scaled to the reference size
+	 */
+	private float[] bassSpectrum = new float[BASS_SIZE / 2 + 1];
+	/**
+	 * the treble spectrum of the last analyzed sound sample, scaled to the reference size.
+	 * Each band holds its strongest value across all the treble hops of the sound sample
+	 */
+	private float[] trebleSpectrum = new float[TREBLE_SIZE / 2 + 1];
+	/**
+	 * the last FILTER_TAPS samples, written twice (at position and position + FILTER_TAPS) so that the filter always reads them in one piece
+	 */
+	private float[] filterHistory = new float[FILTER_TAPS * 2];
+	/**
+	 * the position of the next sample in the filter history
+	 */
+	private int filterPosition = 0;
+	/**
+	 * the number of samples received since the last decimated sample
+	 */
+	private int decimationCount = 0;
+	/**
+	 * the sample rate of the analyzed sound
+	 */
+	private float sampleRate;
+
+	/**
+	 * constructs an analyzer for a sound with the given sample rate
+	 * @param sampleRate the sample rate of the sound
+	 */
+	public MultiResolutionAnalyzer(float sampleRate) {
+		this.sampleRate = sampleRate;
+		bassFft = new FFT(BASS_SIZE, sampleRate / BASS_DECIMATION);
+		trebleFft = new FFT(TREBLE_SIZE, sampleRate);
+		onsetDetector = new OnsetDetector(Math.round(ONSET_MAX_FREQ / bassFft.getBandWidth()) + 1, sampleRate);
+	}
+
+	/**
+	 * analyzes a new sound sample
+	 * @param samples the sound sample after all channels have been merged together. Its length must be a multiple of TREBLE_SIZE
+	 */
+	public void analyze(float[] samples) {
+		//Treble: one short FFT per hop, keeping the strongest value of each band
+		float trebleScale = REFERENCE_SIZE / (float) TREBLE_SIZE;
+		for(int i = 0; i < trebleSpectrum.length; i++) {
+			trebleSpectrum[i] = 0;
+		}
+		for(int start = 0; start + TREBLE_SIZE <= samples.length; start += TREBLE_SIZE) {
+			System.arraycopy(samples, start, trebleInput, 0, TREBLE_SIZE);
+			trebleFft.forward(trebleInput);
+			for(int i = 0; i < trebleSpectrum.length; i++) {
+				trebleSpectrum[i] = Math.max(trebleSpectrum[i], trebleFft.getBand(i) * trebleScale);
+			}
+		}
+
+		//Bass: low-pass filter and decimate the new samples, then append them to the history.
+		//The filter is only evaluated for the samples that are kept, which costs FILTER_TAPS / BASS_DECIMATION operations per sample
+		int newSamples = (decimationCount + samples.length) / BASS_DECIMATION;
+		System.arraycopy(bassHistory, newSamples, bassHistory, 0, BASS_SIZE - newSamples);
+		int write = BASS_SIZE - newSamples;
+		for(int i = 0; i < samples.length; i++) {
+			filterHistory[filterPosition] = samples[i];
+			filterHistory[filterPosition + FILTER_TAPS] = samples[i];
+			filterPosition = (filterPosition + 1) % FILTER_TAPS;
+			if(++decimationCount == BASS_DECIMATION) {
+				float sum = 0;
+				for(int t = 0; t < FILTER_TAPS; t++) { //The oldest sample first (the filter is symmetric anyway)
+					sum += FILTER[t] * filterHistory[filterPosition + t];
+				}
+				bassHistory[write++] = sum;
+				decimationCount = 0;
+			}
+		}
+
+		System.arraycopy(bassHistory, 0, bassInput, 0, BASS_SIZE);
+		bassFft.forward(bassInput);
+		float bassScale = REFERENCE_SIZE / (float) BASS_SIZE;
+		for(int i = 0; i < bassSpectrum.length; i++) {
+			bassSpectrum[i] = bassFft.getBand(i) * bassScale;
+		}
+		
+		onsetDetector.process(bassSpectrum, samples.length);
+	}
+
+	/**
+	 * forgets the samples of the previous sound samples, for example when the sound skips to another part.
+	 * The bass FFT and the onset detector then only see the sound from the new position
+	 */
+	public void reset() {
+		Arrays.fill(bassHistory, 0);
+		Arrays.fill(filterHistory, 0);
+		filterPosition = 0;
+		decimationCount = 0;
+		onsetDetector.reset();
+	}
+
+	/**
+	 * computes the coefficients of the anti-aliasing filter: a sinc cut at the Nyquist frequency of the decimated sound, shaped by a Blackman window
+	 * @return the coefficients, whose sum is 1 so that the level of the bass is unchanged
+	 */
+	private static float[] createFilter() {
+		double cutoff = 0.5 / BASS_DECIMATION; //Relative to the sample rate
+		double[] coefficients = new double[FILTER_TAPS];
+		double sum = 0;
+		for(int t = 0; t < FILTER_TAPS; t++) {
+			double x = t - (FILTER_TAPS - 1) / 2.0; //Never 0: the number of taps is even
+			double sinc = Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+			double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * t / (FILTER_TAPS - 1)) + 0.08 * Math.cos(4 * Math.PI * t / (FILTER_TAPS - 1));
+			coefficients[t] = sinc * window;
+			sum += coefficients[t];
+		}
+
+		float[] filter = new float[FILTER_TAPS];
+		for(int t = 0; t < FILTER_TAPS; t++) {
+			filter[t] = (float) (coefficients[t] / sum);
+		}
+		return filter;
+	}
+
+	/**
+	 * @return the sample rate of the analyzed sound
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return the onset detector, up to date with the last analyzed sound sample
+	 */
+	public OnsetDetector getOnsetDetector() {
+		return onsetDetector;
+	}
+
+	/**
+	 * @return the bass spectrum of the last analyzed sound sample. Must not be modified
+	 */
+	public float[] getBassSpectrum() {
+		return bassSpectrum;
+	}
+
+	/**
+	 * @return the treble spectrum of the last analyzed sound sample. Must not be modified
+	 */
+	public float[] getTrebleSpectrum() {
+		return trebleSpectrum;
+	}
+
+	/**
+	 * @return the width, in Hertz, of each frequency band of the bass spectrum
+	 */
+	public float getBassBandWidth() {
+		return bassFft.getBandWidth();
+	}
+
+	/**
+	 * @return the width, in Hertz, of each frequency band of the treble spectrum
+	 */
+	public float getTrebleBandWidth() {
+		return trebleFft.getBandWidth();
+	}
+}
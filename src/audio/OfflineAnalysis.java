@@ -0,0 +1,148 @@
+package audio;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * This class analyzes a whole sound as fast as possible, without playing it.
+ * It reads the sound in sound samples of AudioPlayer.BUFFER_SIZE sample frames and analyzes them exactly like the AudioPlayer does,
+ * so the frames it produces are the ones that the reactions would see during playback.
+ * Used to bake the reactions of a project and to export videos.
+ */
+public class OfflineAnalysis {
+
+	/**
+	 * the stream of the sound being analyzed
+	 */
+	private AudioInputStream audioInputStream;
+	/**
+	 * the format of the sound
+	 */
+	private AudioFormat audioFormat;
+	/**
+	 * the byte buffer containing the current sound sample
+	 */
+	private byte[] buffer;
+	/**
+	 * the current sound sample after all channels have been merged together
+	 */
+	private float[] mixBuffer = new float[AudioPlayer.BUFFER_SIZE];
+	/**
+	 * the analyzer running the FFTs
+	 */
+	private MultiResolutionAnalyzer analyzer;
+	/**
+	 * the object measuring the recent range of the amplitude and of the frequency bands
+	 */
+	private LevelNormalizer normalizer;
+	/**
+	 * the frame of the current sound sample
+	 */
+	private AnalysisFrame frame = new AnalysisFrame();
+	/**
+	 * the number of frames analyzed so far
+	 */
+	private long frameCount = 0;
+	/**
+	 * the number of sample frames read so far
+	 */
+	private long samplesRead = 0;
+
+	/**
+	 * prepares the analysis of a sound
+	 * @param soundBytes all the bytes of the sound file
+	 * @throws UnsupportedAudioFileException if the sound can't be read, or if its samples are not 2 bytes long
+	 * @throws IOException if the sound can't be read
+	 */
+	public OfflineAnalysis(byte[] soundBytes) throws UnsupportedAudioFileException, IOException {
+		audioInputStream = AudioSystem.getAudioInputStream(new ByteArrayInputStream(soundBytes));
+		audioFormat = audioInputStream.getFormat();
+		if(audioFormat.getSampleSizeInBits() / 8 != 2) //Same restriction as the AudioPlayer
+			throw new UnsupportedAudioFileException();
+
+		buffer = new byte[AudioPlayer.BUFFER_SIZE * audioFormat.getFrameSize()];
+		analyzer = new MultiResolutionAnalyzer(audioFormat.getSampleRate());
+		normalizer = new LevelNormalizer(audioFormat.getSampleRate(), AudioPlayer.BUFFER_SIZE);
+	}
+
+	/**
+	 * reads and analyzes the next sound sample. The end of the last sound sample is filled with silence
+	 * @return whether there was a sound sample to analyze (false at the end of the sound)
+	 * @throws IOException if the sound can't be read
+	 */
+	public boolean next() throws IOException {
+		//Fill the whole buffer, the stream may return less bytes than asked
+		int bytesRead = 0;
+		while(bytesRead < buffer.length) {
+			int n = audioInputStream.read(buffer, bytesRead, buffer.length - bytesRead);
+			if(n == -1) break;
+			bytesRead += n;
+		}
+		if(bytesRead == 0) return false;
+		if(bytesRead < buffer.length) {
+			Arrays.fill(buffer, bytesRead, buffer.length, (byte) 0);
+		}
+
+		float absSum = 0, squareSum = 0, peak = 0;
+		for(int i = 0; i < AudioPlayer.BUFFER_SIZE; i++) {
+			float avg = AudioPlayer.getSampleMix(buffer, i * audioFormat.getFrameSize(), audioFormat);
+			mixBuffer[i] = avg;
+
+			float abs = Math.abs(avg);
+			absSum += abs;
+			squareSum += avg * avg;
+			if(abs > peak) peak = abs;
+		}
+		samplesRead += bytesRead / audioFormat.getFrameSize();
+
+		analyzer.analyze(mixBuffer);
+		frame.capture(frameCount++, samplesRead, absSum / AudioPlayer.BUFFER_SIZE, (float) Math.sqrt(squareSum / AudioPlayer.BUFFER_SIZE), peak, analyzer);
+		normalizer.process(frame);
+		return true;
+	}
+
+	/**
+	 * @return the frame of the last analyzed sound sample. It is overwritten by the next call to next()
+	 */
+	public AnalysisFrame getFrame() {
+		return frame;
+	}
+
+	/**
+	 * @return the mixed samples of the last analyzed sound sample. They are overwritten by the next call to next()
+	 */
+	public float[] getMixBuffer() {
+		return mixBuffer;
+	}
+
+	/**
+	 * @return the format of the sound
+	 */
+	public AudioFormat getFormat() {
+		return audioFormat;
+	}
+
+	/**
+	 * @return the total number of sample frames in the sound, or -1 if it is not known
+	 */
+	public long getLength() {
+		return audioInputStream.getFrameLength();
+	}
+
+	/**
+	 * closes the sound
+	 */
+	public void close() {
+		try {
+			audioInputStream.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
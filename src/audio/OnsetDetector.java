@@ -0,0 +1,169 @@
+package audio;
+
+/**
+ * This class detects the onsets (beats, hits) in the sound, one spectrum at a time.
+ * It measures the spectral flux, which is how much the spectrum grew since the previous one, and compares it to an adaptive threshold:
+ * the mean plus a few standard deviations of the flux over about the last second.
+ * Sustained sounds keep the flux low even when they are loud, so only the new hits are detected.
+ * All the buffers are allocated once and each spectrum costs one pass over its bands.
+ */
+public class OnsetDetector {
+
+	/**
+	 * the factor applied to the bands before their logarithm is taken. Makes the compression softer on the noise floor
+	 */
+	private static final float COMPRESSION_GAIN = 0.1f;
+	/**
+	 * the number of flux values used to compute the adaptive threshold
+	 */
+	private static final int THRESHOLD_WINDOW = 43;
+	/**
+	 * the number of standard deviations over the mean flux that the flux must reach to be an onset
+	 */
+	private static final float THRESHOLD_DEVIATIONS = 2f;
+	/**
+	 * the flux under which nothing is considered an onset, even in a very quiet part of the sound
+	 */
+	private static final float MIN_FLUX = 3f;
+	/**
+	 * the minimum time, in seconds, between two onsets
+	 */
+	private static final float MIN_INTERVAL = 0.1f;
+
+	/**
+	 * the previous spectrum, compressed. Only the bands listened to by the detector are kept
+	 */
+	private float[] previousSpectrum;
+	/**
+	 * whether previousSpectrum holds a spectrum. The first spectrum after a reset only becomes the previous one: its flux would be its whole energy
+	 */
+	private boolean hasPrevious = false;
+	/**
+	 * the last flux values, used as a ring buffer
+	 */
+	private float[] fluxHistory = new float[THRESHOLD_WINDOW];
+	/**
+	 * the index at which the next flux value is written in the ring buffer
+	 */
+	private int historyIndex = 0;
+	/**
+	 * the number of values in the ring buffer
+	 */
+	private int historySize = 0;
+	/**
+	 * the sum of the flux values in the ring buffer
+	 */
+	private double fluxSum = 0;
+	/**
+	 * the sum of the squares of the flux values in the ring buffer
+	 */
+	private double fluxSquareSum = 0;
+
+	/**
+	 * the sample rate of the analyzed sound
+	 */
+	private float sampleRate;
+	/**
+	 * the flux of the last spectrum
+	 */
+	private float flux = 0;
+	/**
+	 * whether an onset was detected in the last spectrum
+	 */
+	private boolean onset = false;
+	/**
+	 * the number of samples analyzed since the last onset
+	 */
+	private long samplesSinceOnset = Long.MAX_VALUE / 2;
+
+	/**
+	 * constructs an onset detector listening to the first bands of the spectrums
+	 * @param bandCount the number of bands, starting from the lowest one, that the detector listens to
+	 * @param sampleRate the sample rate of the analyzed sound
+	 */
+	public OnsetDetector(int bandCount, float sampleRate) {
+		previousSpectrum = new float[bandCount];
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * processes a new spectrum
+	 * @param spectrum the new spectrum. It must have at least as many bands as the detector listens to
+	 * @param hopSamples the number of samples between the previous spectrum and this one
+	 */
+	public void process(float[] spectrum, int hopSamples) {
+		//Spectral flux: sum of the increases of the compressed bands
+		float newFlux = 0;
+		for(int i = 0; i < previousSpectrum.length; i++) {
+			float compressed = (float) Math.log1p(spectrum[i] * COMPRESSION_GAIN);
+			float increase = compressed - previousSpectrum[i];
+			if(increase > 0) newFlux += increase;
+			previousSpectrum[i] = compressed;
+		}
+		flux = hasPrevious? newFlux: 0;
+		hasPrevious = true;
+
+		//Adaptive threshold over the last flux values
+		float threshold = MIN_FLUX;
+		if(historySize > 0) {
+			double mean = fluxSum / historySize;
+			double deviation = Math.sqrt(Math.max(0, fluxSquareSum / historySize - mean * mean));
+			threshold = Math.max(MIN_FLUX, (float) (mean + THRESHOLD_DEVIATIONS * deviation));
+		}
+
+		samplesSinceOnset += hopSamples;
+		onset = flux > threshold && samplesSinceOnset >= MIN_INTERVAL * sampleRate;
+		if(onset) {
+			samplesSinceOnset = 0;
+		}
+
+		//Add the flux to the ring buffer, replacing the oldest value
+		if(historySize == THRESHOLD_WINDOW) {
+			float oldest = fluxHistory[historyIndex];
+			fluxSum -= oldest;
+			fluxSquareSum -= oldest * oldest;
+		}
+		else {
+			historySize++;
+		}
+		fluxHistory[historyIndex] = flux;
+		fluxSum += flux;
+		fluxSquareSum += flux * flux;
+		historyIndex = (historyIndex + 1) % THRESHOLD_WINDOW;
+	}
+
+	/**
+	 * forgets the previous spectrum and the flux history, for example when the sound skips to another part
+	 */
+	public void reset() {
+		hasPrevious = false;
+		historyIndex = 0;
+		historySize = 0;
+		fluxSum = 0;
+		fluxSquareSum = 0;
+		flux = 0;
+		onset = false;
+		samplesSinceOnset = Long.MAX_VALUE / 2;
+	}
+
+	/**
+	 * @return the spectral flux of the last spectrum
+	 */
+	public float getFlux() {
+		return flux;
+	}
+
+	/**
+	 * @return whether an onset was detected in the last spectrum
+	 */
+	public boolean isOnset() {
+		return onset;
+	}
+
+	/**
+	 * @return the time, in seconds, since the last onset
+	 */
+	public double getTimeSinceOnset() {
+		return samplesSinceOnset / (double) sampleRate;
+	}
+}
@@ -0,0 +1,101 @@
+package audio;
+
+/**
+ * This class keeps the minimum and maximum of the last values added to it (a sliding window).
+ * It uses two monotonic queues stored in fixed ring buffers: each value enters and leaves each queue at most once,
+ * so adding a value costs O(1) on average and nothing is allocated after construction.
+ */
+public class RunningRange {
+
+	/**
+	 * the number of values in the sliding window
+	 */
+	private final int capacity;
+	/**
+	 * the number of values added so far. Used as the position of each value to know when it leaves the window
+	 */
+	private long count = 0;
+
+	/**
+	 * the positions and values of the candidates for the maximum, in decreasing order of value, the oldest first
+	 */
+	private final long[] maxPositions;
+	private final float[] maxValues;
+	/**
+	 * the index of the oldest candidate for the maximum in the ring buffers, and the number of candidates
+	 */
+	private int maxHead = 0, maxSize = 0;
+
+	/**
+	 * the positions and values of the candidates for the minimum, in increasing order of value, the oldest first
+	 */
+	private final long[] minPositions;
+	private final float[] minValues;
+	/**
+	 * the index of the oldest candidate for the minimum in the ring buffers, and the number of candidates
+	 */
+	private int minHead = 0, minSize = 0;
+
+	/**
+	 * constructs an empty running range
+	 * @param capacity the number of values in the sliding window
+	 */
+	public RunningRange(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		maxPositions = new long[this.capacity];
+		maxValues = new float[this.capacity];
+		minPositions = new long[this.capacity];
+		minValues = new float[this.capacity];
+	}
+
+	/**
+	 * adds a value to the window, removing the oldest one if the window is full
+	 * @param value the new value
+	 */
+	public void add(float value) {
+		long position = count++;
+
+		//Remove the candidate that left the window, then the ones that can never be the maximum again
+		if(maxSize > 0 && maxPositions[maxHead] <= position - capacity) {
+			maxHead = (maxHead + 1) % capacity;
+			maxSize--;
+		}
+		while(maxSize > 0 && maxValues[(maxHead + maxSize - 1) % capacity] <= value) maxSize--;
+		maxPositions[(maxHead + maxSize) % capacity] = position;
+		maxValues[(maxHead + maxSize) % capacity] = value;
+		maxSize++;
+
+		//Same for the minimum
+		if(minSize > 0 && minPositions[minHead] <= position - capacity) {
+			minHead = (minHead + 1) % capacity;
+			minSize--;
+		}
+		while(minSize > 0 && minValues[(minHead + minSize - 1) % capacity] >= value) minSize--;
+		minPositions[(minHead + minSize) % capacity] = position;
+		minValues[(minHead + minSize) % capacity] = value;
+		minSize++;
+	}
+
+	/**
+	 * @return the biggest value in the window (0 if no value was added)
+	 */
+	public float getMax() {
+		return maxSize == 0? 0: maxValues[maxHead];
+	}
+
+	/**
+	 * @return the smallest value in the window (0 if no value was added)
+	 */
+	public float getMin() {
+		return minSize == 0? 0: minValues[minHead];
+	}
+
+	/**
+	 * empties the window
+	 */
+	public void reset() {
+		count = 0;
+		maxHead = maxSize = 0;
+		minHead = minSize = 0;
+	}
+}
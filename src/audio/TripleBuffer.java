@@ -0,0 +1,86 @@
+package audio;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is a lock-free triple buffer used to hand objects from one writing thread to one reading thread.
+ * The writer always fills the back slot while the reader keeps the front slot. Publishing swaps the back slot with the middle one
+ * and acquiring swaps the front slot with the middle one if something new was published since, so neither side ever waits for the other.
+ * All three slots are allocated up front: nothing is allocated while the buffer is in use.
+ * @param <T> the type of the objects exchanged between the two threads
+ */
+public class TripleBuffer<T> {
+
+	/**
+	 * the flag set on the middle index when it holds a slot that the reader has not seen yet
+	 */
+	private static final int DIRTY = 4;
+	/**
+	 * the mask used to get the slot index out of the middle index
+	 */
+	private static final int INDEX_MASK = 3;
+
+	/**
+	 * the three preallocated slots
+	 */
+	private final Object[] slots;
+	/**
+	 * the index of the middle slot, along with the DIRTY flag. This is the only value shared by both threads
+	 */
+	private final AtomicInteger middle = new AtomicInteger(1);
+	/**
+	 * the index of the slot owned by the writing thread
+	 */
+	private int back = 2;
+	/**
+	 * the index of the slot owned by the reading thread
+	 */
+	private int front = 0;
+
+	/**
+	 * constructs a triple buffer with its three preallocated slots
+	 * @param first the first slot. It is the one returned by acquire() until something is published
+	 * @param second the second slot
+	 * @param third the third slot
+	 */
+	public TripleBuffer(T first, T second, T third) {
+		slots = new Object[] {first, second, third};
+	}
+
+	/**
+	 * must only be called from the writing thread
+	 * @return the slot that the writing thread can fill before calling publish()
+	 */
+	@SuppressWarnings("unchecked")
+	public T getWriteBuffer() {
+		return (T) slots[back];
+	}
+
+	/**
+	 * makes the content of the write buffer available to the reading thread and gives the writing thread a new write buffer.
+	 * Must only be called from the writing thread
+	 */
+	public void publish() {
+		back = middle.getAndSet(back | DIRTY) & INDEX_MASK;
+	}
+
+	/**
+	 * returns the most recently published slot. The returned object will not be modified by the writing thread
+	 * until the reading thread calls acquire() again. Must only be called from the reading thread
+	 * @return the most recently published slot
+	 */
+	@SuppressWarnings("unchecked")
+	public T acquire() {
+		if((middle.get() & DIRTY) != 0) {
+			front = middle.getAndSet(front) & INDEX_MASK;
+		}
+		return (T) slots[front];
+	}
+
+	/**
+	 * @return whether something was published since the last call to acquire()
+	 */
+	public boolean hasNewData() {
+		return (middle.get() & DIRTY) != 0;
+	}
+}
@@ -0,0 +1,26 @@
+package export;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * This interface represents a FrameSink that compresses its frames. The VideoExporter compresses the frames on its worker threads,
+ * right after rendering them, so the compression runs on all the cores and only the writing of the compressed frames stays in order.
+ */
+public interface EncodingFrameSink extends FrameSink {
+
+	/**
+	 * compresses a frame. Called from several threads at the same time, for frames in any order
+	 * @param frame the rendered frame, of type BufferedImage.TYPE_INT_RGB
+	 * @return the compressed frame
+	 * @throws IOException if the frame can't be compressed
+	 */
+	public byte[] encodeFrame(BufferedImage frame) throws IOException;
+
+	/**
+	 * writes the next compressed frame of the video
+	 * @param data the frame returned by encodeFrame()
+	 * @throws IOException if the output can't be written
+	 */
+	public void writeEncodedFrame(byte[] data) throws IOException;
+}
@@ -0,0 +1,80 @@
+package export;
+
+import shapes.ReactiveShape;
+
+/**
+ * This class is a copy of the properties of a ReactiveShape that are needed to render it, taken on the JavaFX Application thread.
+ * Its fields never change, so the export threads can read it without touching the JavaFX nodes.
+ */
+public class ExportShape {
+
+	/**
+	 * the shape type (see ReactiveShape)
+	 */
+	final int shapeType;
+	/**
+	 * the position of the center and the size, in logical units
+	 */
+	final double x, y, width, height;
+	/**
+	 * the fill color, as 0xAARRGGBB. Equals 0 (transparent) if the shape is not filled
+	 */
+	final int fill;
+	/**
+	 * the border thickness, in logical units
+	 */
+	final int borderThickness;
+	/**
+	 * the border color, as 0xAARRGGBB
+	 */
+	final int borderColor;
+
+	/**
+	 * copies a shape. Must be called from the JavaFX Application thread
+	 * @param shape the shape to copy
+	 */
+	public ExportShape(ReactiveShape shape) {
+		shapeType = shape.getShapeType();
+		x = shape.getXPosition();
+		y = shape.getYPosition();
+		width = shape.getWidth();
+		height = shape.getHeight();
+		fill = shape.isFilled()? toArgb(shape.getColor()): 0;
+		borderThickness = shape.getBorderThickness();
+		borderColor = toArgb(shape.getBorderColor());
+	}
+
+	/**
+	 * returns the fill of this shape with the values set by the reactions, like ReactiveShape does
+	 * @param red the red value set by the reactions, from 0 to 255, or NaN if no reaction sets it
+	 * @param green the green value set by the reactions, or NaN
+	 * @param blue the blue value set by the reactions, or NaN
+	 * @return the fill, as 0xAARRGGBB
+	 */
+	int getFill(double red, double green, double blue) {
+		if(Double.isNaN(red) && Double.isNaN(green) && Double.isNaN(blue)) {
+			return fill;
+		}
+		//A color reaction fills the shape even if it is not filled, with the channels of a transparent black
+		return 0xFF000000 | (toChannel(red, (fill >> 16) & 0xFF) << 16) | (toChannel(green, (fill >> 8) & 0xFF) << 8) | toChannel(blue, fill & 0xFF);
+	}
+
+	/**
+	 * @param value the value of a color channel set by the reactions, from 0 to 255, or NaN if no reaction sets it
+	 * @param base the value of the channel in the color of the shape, from 0 to 255
+	 * @return the channel between 0 and 255
+	 */
+	private static int toChannel(double value, int base) {
+		if(Double.isNaN(value)) return base;
+		return (int) Math.round(Math.max(0, Math.min(255, value)));
+	}
+
+	/**
+	 * @param color a JavaFX color
+	 * @return the color as 0xAARRGGBB
+	 */
+	static int toArgb(javafx.scene.paint.Color color) {
+		return ((int) Math.round(color.getOpacity() * 255) << 24) | ((int) Math.round(color.getRed() * 255) << 16)
+				| ((int) Math.round(color.getGreen() * 255) << 8) | (int) Math.round(color.getBlue() * 255);
+	}
+}
@@ -0,0 +1,123 @@
+package export;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+
+import nodes.VideoPane;
+import reactions.ReactionPlan;
+
+/**
+ * This class draws the frames of an exported video with the SoftwareRasterizer, without any JavaFX node.
+ * It renders the shapes the same way the canvas mode of the VideoPane does, from the property values of a reaction plan.
+ * It keeps no state between two frames, so several threads can render different frames at the same time.
+ */
+public class FrameRenderer {
+
+	/**
+	 * the shapes to draw, from the back to the front
+	 */
+	private ArrayList<ExportShape> shapes;
+	/**
+	 * the pixels of the background, copied at the start of each frame
+	 */
+	private int[] background;
+	/**
+	 * the width and height, in pixels, of the frames
+	 */
+	private int width, height;
+
+	/**
+	 * constructs a frame renderer
+	 * @param shapes the shapes to draw, from the back to the front
+	 * @param backgroundColor the background color
+	 * @param backgroundImage the background image, or null if the background is a color
+	 * @param width the width, in pixels, of the frames
+	 * @param height the height, in pixels, of the frames
+	 */
+	public FrameRenderer(ArrayList<ExportShape> shapes, Color backgroundColor, BufferedImage backgroundImage, int width, int height) {
+		this.shapes = shapes;
+		this.width = width;
+		this.height = height;
+
+		//The background is the same for every frame: draw it once
+		BufferedImage image = createFrame();
+		Graphics2D g = image.createGraphics();
+		g.setColor(backgroundColor);
+		g.fillRect(0, 0, width, height);
+		if(backgroundImage != null) { //The image covers the whole frame and is centered, like in the video pane
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			double scale = Math.max(width / (double) backgroundImage.getWidth(), height / (double) backgroundImage.getHeight());
+			int w = (int) Math.ceil(backgroundImage.getWidth() * scale), h = (int) Math.ceil(backgroundImage.getHeight() * scale);
+			g.drawImage(backgroundImage, (width - w) / 2, (height - h) / 2, w, h, null);
+		}
+		g.dispose();
+		background = getPixels(image).clone();
+	}
+
+	/**
+	 * @return a new image in which frames can be rendered
+	 */
+	public BufferedImage createFrame() {
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * @param frame an image created by createFrame()
+	 * @return the pixels of the image, as 0xRRGGBB, row after row
+	 */
+	public static int[] getPixels(BufferedImage frame) {
+		return ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * draws a frame
+	 * @param properties the property array of the reaction plan (see ReactionPlan.getProperties())
+	 * @param frame the image in which to draw, created by createFrame()
+	 */
+	public void render(double[] properties, BufferedImage frame) {
+		int[] pixels = getPixels(frame);
+		System.arraycopy(background, 0, pixels, 0, pixels.length);
+
+		double[] transform = new double[6];
+		for(int i = 0; i < shapes.size(); i++) {
+			draw(pixels, shapes.get(i), properties, i * ReactionPlan.PROPERTY_COUNT, transform);
+		}
+	}
+
+	/**
+	 * draws a shape with the values computed by a reaction plan
+	 * @param pixels the pixels of the frame
+	 * @param shape the shape to draw
+	 * @param properties the property array of the reaction plan
+	 * @param offset the index of the first property of the shape in the property array
+	 * @param transform an array of 6 values in which the transform of the shape is written
+	 */
+	private void draw(int[] pixels, ExportShape shape, double[] properties, int offset, double[] transform) {
+		double scaleX = properties[offset + ReactionPlan.SCALE_X];
+		double scaleY = properties[offset + ReactionPlan.SCALE_Y];
+		double translateX = properties[offset + ReactionPlan.TRANSLATE_X];
+		double translateY = properties[offset + ReactionPlan.TRANSLATE_Y];
+		double rotate = properties[offset + ReactionPlan.ROTATE];
+		double opacity = properties[offset + ReactionPlan.OPACITY];
+
+		//Scaled and rotated around the center like the nodes, then from logical units to pixels
+		double sx = Double.isNaN(scaleX)? 1: scaleX, sy = Double.isNaN(scaleY)? 1: scaleY;
+		double angle = Math.toRadians(Double.isNaN(rotate)? 0: rotate);
+		double cos = Math.cos(angle), sin = Math.sin(angle);
+		double pixelsX = width / VideoPane.LOGICAL_WIDTH, pixelsY = height / VideoPane.LOGICAL_HEIGHT;
+		transform[0] = pixelsX * sx * cos;
+		transform[1] = -pixelsX * sy * sin;
+		transform[2] = pixelsX * (shape.x + (Double.isNaN(translateX)? 0: translateX));
+		transform[3] = pixelsY * sx * sin;
+		transform[4] = pixelsY * sy * cos;
+		transform[5] = pixelsY * (shape.y + (Double.isNaN(translateY)? 0: translateY));
+
+		int fill = shape.getFill(properties[offset + ReactionPlan.COLOR_RED], properties[offset + ReactionPlan.COLOR_GREEN], properties[offset + ReactionPlan.COLOR_BLUE]);
+		SoftwareRasterizer.drawShape(pixels, width, height, shape.shapeType, shape.width, shape.height, fill, shape.borderThickness, shape.borderColor,
+				transform, Double.isNaN(opacity)? 1: Math.max(0, Math.min(1, opacity)));
+	}
+}
@@ -0,0 +1,39 @@
+package export;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * This interface represents the destination of an exported video: it receives the rendered frames, in order, and the sound of the project.
+ */
+public interface FrameSink {
+
+	/**
+	 * called once before the first frame
+	 * @param width the width, in pixels, of the frames
+	 * @param height the height, in pixels, of the frames
+	 * @param frameRate the number of frames per second
+	 * @param soundBytes all the bytes of the sound file of the project
+	 * @throws IOException if the output can't be written
+	 */
+	public void begin(int width, int height, int frameRate, byte[] soundBytes) throws IOException;
+
+	/**
+	 * writes the next frame of the video. The image is reused once this method returns
+	 * @param frame the rendered frame, of type BufferedImage.TYPE_INT_RGB
+	 * @throws IOException if the output can't be written
+	 */
+	public void writeFrame(BufferedImage frame) throws IOException;
+
+	/**
+	 * called once after the last frame
+	 * @throws IOException if the output can't be written
+	 */
+	public void end() throws IOException;
+
+	/**
+	 * called instead of end() when the export fails or is interrupted, possibly before begin() or while end() was running.
+	 * Closes the output without finishing it. Never throws: the error that stopped the export is the one reported
+	 */
+	public void abort();
+}
@@ -0,0 +1,387 @@
+package export;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * This class writes an exported video as a single AVI file with Motion JPEG frames and the sound as 16 bits PCM, playable without any other tool.
+ * The frames are compressed to JPEG on the worker threads of the exporter. The file is written from the start to the end:
+ * after each frame comes the sound that plays until the next frame, the index of every chunk is kept in memory and written at the end,
+ * and only the sizes in the header, unknown until then, are written again once the video is complete.
+ * AVI files without the OpenDML extensions are limited to about 1 GB, which is enough for previews: the export fails with an IOException
+ * rather than writing a file whose sizes and offsets overflow.
+ */
+public class MjpegAviSink implements EncodingFrameSink {
+
+	/**
+	 * the quality of the JPEG compression, from 0 to 1
+	 */
+	private static final float JPEG_QUALITY = 0.85f;
+	/**
+	 * the size, in bytes, of all the chunks before the 'movi' list: RIFF header, 'hdrl' list and the start of the 'movi' list
+	 */
+	private static final int HEADER_SIZE = 12 + (12 + 64 + (12 + 64 + 48) + (12 + 64 + 26)) + 12;
+	/**
+	 * the flag of the index entries of key frames (every JPEG frame is one)
+	 */
+	private static final int KEY_FRAME = 0x10;
+	/**
+	 * the maximum size, in bytes, of a file, index included. Every size and offset in the file then fits in the 32 bits integers of the format,
+	 * and players that only read AVI 1.0 files are not lost
+	 */
+	private static final long MAX_FILE_SIZE = 1L << 30;
+
+	/**
+	 * the file the video is written to
+	 */
+	private File file;
+	/**
+	 * the channel writing the file
+	 */
+	private FileChannel channel;
+	/**
+	 * the width, height and frame rate of the video
+	 */
+	private int width, height, frameRate;
+	/**
+	 * the sound of the project, converted to 16 bits little endian PCM
+	 */
+	private AudioInputStream sound;
+	/**
+	 * the number of bytes in a sample frame of the sound
+	 */
+	private int soundFrameSize;
+	/**
+	 * the number of sound bytes written so far
+	 */
+	private long soundBytesWritten = 0;
+	/**
+	 * the number of video frames written so far
+	 */
+	private int framesWritten = 0;
+	/**
+	 * the size of the biggest chunk written so far
+	 */
+	private int maxChunkSize = 0;
+	/**
+	 * the index of all the chunks, 16 bytes per chunk, written at the end of the file
+	 */
+	private ByteArrayOutputStream index = new ByteArrayOutputStream();
+	/**
+	 * the buffer used to read the sound between two frames
+	 */
+	private byte[] soundBuffer;
+	/**
+	 * the JPEG writer of each worker thread
+	 */
+	private ThreadLocal<ImageWriter> jpegWriters = new ThreadLocal<ImageWriter>();
+
+	/**
+	 * constructs a sink writing in a file
+	 * @param file the AVI file
+	 */
+	public MjpegAviSink(File file) {
+		this.file = file;
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#begin(int, int, int, byte[])
+	 */
+	@Override
+	public void begin(int width, int height, int frameRate, byte[] soundBytes) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+
+		try {
+			AudioInputStream source = AudioSystem.getAudioInputStream(new ByteArrayInputStream(soundBytes));
+			AudioFormat format = source.getFormat();
+			AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16, format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false);
+			sound = AudioSystem.getAudioInputStream(pcm, source);
+		} catch (UnsupportedAudioFileException e) {
+			throw new IOException(e);
+		}
+		soundFrameSize = sound.getFormat().getFrameSize();
+		soundBuffer = new byte[(int) Math.ceil(sound.getFormat().getSampleRate() / frameRate + 1) * soundFrameSize];
+
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		channel.write(createHeader(), 0); //Written again at the end with the real sizes
+		channel.position(HEADER_SIZE);
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#writeFrame(java.awt.image.BufferedImage)
+	 */
+	@Override
+	public void writeFrame(BufferedImage frame) throws IOException {
+		writeEncodedFrame(encodeFrame(frame));
+	}
+
+	/* (non-Javadoc)
+	 * @see export.EncodingFrameSink#encodeFrame(java.awt.image.BufferedImage)
+	 */
+	@Override
+	public byte[] encodeFrame(BufferedImage frame) throws IOException {
+		ImageWriter writer = jpegWriters.get();
+		if(writer == null) { //ImageIO writers can't be shared between threads
+			Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+			if(!writers.hasNext()) throw new IOException("No JPEG encoder available");
+			writer = writers.next();
+			jpegWriters.set(writer);
+		}
+
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(JPEG_QUALITY);
+
+		ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(jpeg);
+		writer.setOutput(output);
+		writer.write(null, new IIOImage(frame, null, null), param);
+		output.close();
+		return jpeg.toByteArray();
+	}
+
+	/* (non-Javadoc)
+	 * @see export.EncodingFrameSink#writeEncodedFrame(byte[])
+	 */
+	@Override
+	public void writeEncodedFrame(byte[] data) throws IOException {
+		writeChunk("00dc", data, data.length);
+		framesWritten++;
+
+		//The sound that plays until the next frame
+		long soundEnd = (long) Math.floor(framesWritten * (double) sound.getFormat().getSampleRate() / frameRate) * soundFrameSize;
+		writeSound(soundEnd - soundBytesWritten);
+	}
+
+	/**
+	 * reads the next bytes of the sound and writes them in a chunk
+	 * @param length the number of bytes to write, a multiple of the size of a sample frame
+	 * @throws IOException if the sound can't be read or the file can't be written
+	 */
+	private void writeSound(long length) throws IOException {
+		while(length > 0) {
+			int read = sound.read(soundBuffer, 0, (int) Math.min(length, soundBuffer.length));
+			if(read <= 0) return; //End of the sound
+			writeChunk("01wb", soundBuffer, read);
+			soundBytesWritten += read;
+			length -= read;
+		}
+	}
+
+	/**
+	 * writes a chunk in the 'movi' list and adds it to the index
+	 * @param id the identifier of the chunk
+	 * @param data the content of the chunk
+	 * @param length the number of bytes of data to write
+	 * @throws IOException if the file can't be written, or if the file would get too big with this chunk
+	 */
+	private void writeChunk(String id, byte[] data, int length) throws IOException {
+		long offset = channel.position() - (HEADER_SIZE - 4); //Offsets are relative to the 'movi' identifier
+		long fileSize = channel.position() + 8 + length + length % 2 + 8 + index.size() + 16; //If this chunk was the last one
+		if(fileSize > MAX_FILE_SIZE) {
+			throw new IOException("The video is too big for an AVI file without the OpenDML extensions: export it at a lower resolution or frame rate");
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		putId(header, id);
+		header.putInt(length);
+		header.flip();
+		writeFully(header);
+		writeFully(ByteBuffer.wrap(data, 0, length));
+		if(length % 2 == 1) { //Chunks are aligned on two bytes
+			writeFully(ByteBuffer.wrap(new byte[1]));
+		}
+
+		ByteBuffer entry = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+		putId(entry, id);
+		entry.putInt(id.equals("00dc")? KEY_FRAME: 0);
+		entry.putInt((int) offset);
+		entry.putInt(length);
+		index.write(entry.array());
+		maxChunkSize = Math.max(maxChunkSize, length);
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#end()
+	 */
+	@Override
+	public void end() throws IOException {
+		writeSound(Long.MAX_VALUE); //Whatever is left of the sound after the last frame
+		sound.close();
+
+		long moviEnd = channel.position();
+		ByteBuffer indexHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		putId(indexHeader, "idx1");
+		indexHeader.putInt(index.size());
+		indexHeader.flip();
+		writeFully(indexHeader);
+		writeFully(ByteBuffer.wrap(index.toByteArray()));
+		long fileEnd = channel.position();
+
+		//Now that all the sizes are known, write the header again
+		ByteBuffer header = createHeader();
+		header.putInt(4, (int) (fileEnd - 8));
+		header.putInt(HEADER_SIZE - 8, (int) (moviEnd - (HEADER_SIZE - 4)));
+		channel.write(header, 0);
+		channel.close();
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#abort()
+	 */
+	@Override
+	public void abort() {
+		try {
+			if(sound != null) sound.close();
+		} catch (IOException e) {
+			//Only the memory of the decoded sound is released
+		}
+		try {
+			if(channel != null) channel.close();
+		} catch (IOException e) {
+			//Nothing more can be done with a file that can't even be closed
+		}
+	}
+
+	/**
+	 * creates the header of the file with the number of frames and sound bytes written so far
+	 * @return the header, ready to be written, with the sizes of the RIFF and 'movi' lists left at 0
+	 */
+	private ByteBuffer createHeader() {
+		AudioFormat format = sound.getFormat();
+		int sampleRate = (int) format.getSampleRate();
+		int bytesPerSecond = sampleRate * soundFrameSize;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		putId(header, "RIFF");
+		header.putInt(0);
+		putId(header, "AVI ");
+
+		putId(header, "LIST");
+		header.putInt(4 + 64 + (12 + 64 + 48) + (12 + 64 + 26));
+		putId(header, "hdrl");
+		putId(header, "avih");
+		header.putInt(56);
+		header.putInt(1000000 / frameRate); //Microseconds per frame
+		header.putInt(maxChunkSize * frameRate + bytesPerSecond); //Maximum bytes per second
+		header.putInt(0); //Padding granularity
+		header.putInt(0x10 | 0x100); //Has an index, is interleaved
+		header.putInt(framesWritten);
+		header.putInt(0); //Initial frames
+		header.putInt(2); //Streams
+		header.putInt(maxChunkSize + 8); //Suggested buffer size
+		header.putInt(width);
+		header.putInt(height);
+		header.put(new byte[16]); //Reserved
+
+		//Video stream
+		putId(header, "LIST");
+		header.putInt(4 + 64 + 48);
+		putId(header, "strl");
+		putId(header, "strh");
+		header.putInt(56);
+		putId(header, "vids");
+		putId(header, "MJPG");
+		header.putInt(0); //Flags
+		header.putInt(0); //Priority and language
+		header.putInt(0); //Initial frames
+		header.putInt(1); //Scale
+		header.putInt(frameRate); //Rate: frames per second is rate / scale
+		header.putInt(0); //Start
+		header.putInt(framesWritten); //Length
+		header.putInt(maxChunkSize + 8); //Suggested buffer size
+		header.putInt(-1); //Quality
+		header.putInt(0); //Sample size
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putShort((short) width);
+		header.putShort((short) height);
+		putId(header, "strf");
+		header.putInt(40);
+		header.putInt(40); //BITMAPINFOHEADER size
+		header.putInt(width);
+		header.putInt(height);
+		header.putShort((short) 1); //Planes
+		header.putShort((short) 24); //Bits per pixel
+		putId(header, "MJPG");
+		header.putInt(width * height * 3); //Image size
+		header.put(new byte[16]); //Resolution and colors
+
+		//Audio stream
+		putId(header, "LIST");
+		header.putInt(4 + 64 + 26);
+		putId(header, "strl");
+		putId(header, "strh");
+		header.putInt(56);
+		putId(header, "auds");
+		header.putInt(0); //Handler
+		header.putInt(0); //Flags
+		header.putInt(0); //Priority and language
+		header.putInt(0); //Initial frames
+		header.putInt(soundFrameSize); //Scale
+		header.putInt(bytesPerSecond); //Rate: sample frames per second is rate / scale
+		header.putInt(0); //Start
+		header.putInt((int) (soundBytesWritten / soundFrameSize)); //Length, in sample frames
+		header.putInt(soundBuffer.length); //Suggested buffer size
+		header.putInt(-1); //Quality
+		header.putInt(soundFrameSize); //Sample size
+		header.put(new byte[8]); //Frame rectangle
+		putId(header, "strf");
+		header.putInt(18);
+		header.putShort((short) 1); //PCM
+		header.putShort((short) format.getChannels());
+		header.putInt(sampleRate);
+		header.putInt(bytesPerSecond);
+		header.putShort((short) soundFrameSize); //Block align
+		header.putShort((short) 16); //Bits per sample
+		header.putShort((short) 0); //Extra size
+
+		putId(header, "LIST");
+		header.putInt(0);
+		putId(header, "movi");
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * writes a four character code in a buffer
+	 * @param buffer the buffer
+	 * @param id the four characters
+	 */
+	private static void putId(ByteBuffer buffer, String id) {
+		for(int i = 0; i < 4; i++) {
+			buffer.put((byte) id.charAt(i));
+		}
+	}
+
+	/**
+	 * writes a whole buffer at the current position of the channel
+	 * @param data the buffer, ready to be read
+	 * @throws IOException if the file can't be written
+	 */
+	private void writeFully(ByteBuffer data) throws IOException {
+		while(data.hasRemaining()) {
+			channel.write(data);
+		}
+	}
+}
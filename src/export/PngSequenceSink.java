@@ -0,0 +1,97 @@
+package export;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * This class writes an exported video as a numbered sequence of PNG images (frame_00000.png, frame_00001.png...) along with the sound in a WAV file,
+ * all in the same folder. Any video editor or encoder can then assemble them, for example: ffmpeg -framerate 60 -i frame_%05d.png -i audio.wav video.mp4
+ * The images are compressed on the worker threads of the exporter.
+ */
+public class PngSequenceSink implements EncodingFrameSink {
+
+	/**
+	 * the folder in which the files are written
+	 */
+	private File directory;
+	/**
+	 * the index of the next frame
+	 */
+	private int frameIndex = 0;
+
+	/**
+	 * constructs a sink writing in a folder
+	 * @param directory the folder in which the files are written. It is created if it does not exist
+	 */
+	public PngSequenceSink(File directory) {
+		this.directory = directory;
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#begin(int, int, int, byte[])
+	 */
+	@Override
+	public void begin(int width, int height, int frameRate, byte[] soundBytes) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("The folder " + directory.getAbsolutePath() + " can't be created");
+
+		try {
+			AudioInputStream sound = AudioSystem.getAudioInputStream(new ByteArrayInputStream(soundBytes));
+			AudioSystem.write(sound, AudioFileFormat.Type.WAVE, new File(directory, "audio.wav"));
+			sound.close();
+		} catch (UnsupportedAudioFileException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#writeFrame(java.awt.image.BufferedImage)
+	 */
+	@Override
+	public void writeFrame(BufferedImage frame) throws IOException {
+		writeEncodedFrame(encodeFrame(frame));
+	}
+
+	/* (non-Javadoc)
+	 * @see export.EncodingFrameSink#encodeFrame(java.awt.image.BufferedImage)
+	 */
+	@Override
+	public byte[] encodeFrame(BufferedImage frame) throws IOException {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(frame, "png", png);
+		return png.toByteArray();
+	}
+
+	/* (non-Javadoc)
+	 * @see export.EncodingFrameSink#writeEncodedFrame(byte[])
+	 */
+	@Override
+	public void writeEncodedFrame(byte[] data) throws IOException {
+		Files.write(new File(directory, String.format("frame_%05d.png", frameIndex++)).toPath(), data);
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#end()
+	 */
+	@Override
+	public void end() throws IOException {
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#abort()
+	 */
+	@Override
+	public void abort() {
+		//Every frame is written and closed by writeEncodedFrame(): the frames already written stay in the folder
+	}
+}
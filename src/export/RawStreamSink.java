@@ -0,0 +1,227 @@
+package export;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * This class writes an exported video as a stream of uncompressed frames, either in the YUV4MPEG2 format (Y4M, 4:2:0 chroma, full range BT.601, declared in the header so that encoders do not read it as limited range)
+ * or as raw RGBA bytes. Nothing is compressed, so an encoder reading the stream (ffmpeg -i video.y4m -i video.wav, or from a pipe) is only limited by the disk.
+ * Each frame is converted in arrays allocated once and written through a single direct ByteBuffer.
+ * When the stream goes to a file, the sound is written next to it in a WAV file of the same name.
+ */
+public class RawStreamSink implements FrameSink {
+
+	/**
+	 * the formats of the frames
+	 */
+	public static final int Y4M = 0, RGBA = 1;
+	/**
+	 * the header of each Y4M frame
+	 */
+	private static final byte[] FRAME_HEADER = "FRAME\n".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * the channel the frames are written to
+	 */
+	private WritableByteChannel channel;
+	/**
+	 * the file the frames are written to. Equals null when writing to the standard output
+	 */
+	private File file;
+	/**
+	 * the format of the frames (Y4M or RGBA)
+	 */
+	private int format;
+	/**
+	 * the width and height, in pixels, of the frames
+	 */
+	private int width, height;
+	/**
+	 * the width and height of the chroma planes
+	 */
+	private int chromaWidth, chromaHeight;
+	/**
+	 * the luma and chroma planes of the current frame (Y4M only)
+	 */
+	private byte[] yPlane, uPlane, vPlane;
+	/**
+	 * one row of RGBA bytes (RGBA only)
+	 */
+	private byte[] rgbaRow;
+	/**
+	 * the buffer holding a whole frame, reused for every frame
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * constructs a sink writing in a file
+	 * @param file the file
+	 * @param format the format of the frames (Y4M or RGBA)
+	 */
+	public RawStreamSink(File file, int format) {
+		this.file = file;
+		this.format = format;
+	}
+
+	/**
+	 * constructs a sink writing to the standard output, to pipe the frames into another program
+	 * @param format the format of the frames (Y4M or RGBA)
+	 */
+	public RawStreamSink(int format) {
+		this.format = format;
+		channel = new FileOutputStream(FileDescriptor.out).getChannel();
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#begin(int, int, int, byte[])
+	 */
+	@Override
+	public void begin(int width, int height, int frameRate, byte[] soundBytes) throws IOException {
+		this.width = width;
+		this.height = height;
+		chromaWidth = (width + 1) / 2;
+		chromaHeight = (height + 1) / 2;
+
+		if(file != null) {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			writeSound(soundBytes);
+		}
+
+		if(format == Y4M) {
+			yPlane = new byte[width * height];
+			uPlane = new byte[chromaWidth * chromaHeight];
+			vPlane = new byte[chromaWidth * chromaHeight];
+			buffer = ByteBuffer.allocateDirect(6 + yPlane.length + uPlane.length * 2);
+
+			ByteBuffer header = ByteBuffer.wrap(("YUV4MPEG2 W" + width + " H" + height + " F" + frameRate + ":1 Ip A1:1 C420jpeg XCOLORRANGE=FULL\n").getBytes(StandardCharsets.US_ASCII));
+			write(header);
+		}
+		else {
+			rgbaRow = new byte[width * 4];
+			buffer = ByteBuffer.allocateDirect(width * height * 4);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#writeFrame(java.awt.image.BufferedImage)
+	 */
+	@Override
+	public void writeFrame(BufferedImage frame) throws IOException {
+		int[] pixels = FrameRenderer.getPixels(frame);
+		buffer.clear();
+		if(format == Y4M) {
+			toYuv420(pixels);
+			buffer.put(FRAME_HEADER);
+			buffer.put(yPlane);
+			buffer.put(uPlane);
+			buffer.put(vPlane);
+		}
+		else {
+			for(int y = 0; y < height; y++) {
+				int row = y * width;
+				for(int x = 0; x < width; x++) {
+					int pixel = pixels[row + x];
+					rgbaRow[x * 4] = (byte) (pixel >> 16);
+					rgbaRow[x * 4 + 1] = (byte) (pixel >> 8);
+					rgbaRow[x * 4 + 2] = (byte) pixel;
+					rgbaRow[x * 4 + 3] = (byte) 0xFF;
+				}
+				buffer.put(rgbaRow);
+			}
+		}
+		buffer.flip();
+		write(buffer);
+	}
+
+	/**
+	 * converts a frame to the luma and chroma planes. The loops have no branches and work on plain arrays, so the JIT can vectorize them
+	 * @param pixels the pixels of the frame, as 0xRRGGBB
+	 */
+	private void toYuv420(int[] pixels) {
+		for(int i = 0; i < pixels.length; i++) {
+			int pixel = pixels[i];
+			int red = (pixel >> 16) & 0xFF, green = (pixel >> 8) & 0xFF, blue = pixel & 0xFF;
+			yPlane[i] = (byte) ((77 * red + 150 * green + 29 * blue + 128) >> 8);
+		}
+
+		//Each chroma sample is the mean of a 2x2 block (the last row and column are repeated for odd sizes)
+		for(int cy = 0; cy < chromaHeight; cy++) {
+			int row0 = (cy * 2) * width, row1 = Math.min(cy * 2 + 1, height - 1) * width;
+			for(int cx = 0; cx < chromaWidth; cx++) {
+				int x0 = cx * 2, x1 = Math.min(cx * 2 + 1, width - 1);
+				int p0 = pixels[row0 + x0], p1 = pixels[row0 + x1], p2 = pixels[row1 + x0], p3 = pixels[row1 + x1];
+				int red = (((p0 >> 16) & 0xFF) + ((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF) + ((p3 >> 16) & 0xFF)) >> 2;
+				int green = (((p0 >> 8) & 0xFF) + ((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF) + ((p3 >> 8) & 0xFF)) >> 2;
+				int blue = ((p0 & 0xFF) + (p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF)) >> 2;
+				uPlane[cy * chromaWidth + cx] = (byte) Math.min(255, ((-43 * red - 85 * green + 128 * blue + 128) >> 8) + 128); //Pure blue would give 256
+				vPlane[cy * chromaWidth + cx] = (byte) Math.min(255, ((128 * red - 107 * green - 21 * blue + 128) >> 8) + 128);
+			}
+		}
+	}
+
+	/**
+	 * writes a whole buffer to the channel
+	 * @param data the buffer, ready to be read
+	 * @throws IOException if the channel can't be written
+	 */
+	private void write(ByteBuffer data) throws IOException {
+		while(data.hasRemaining()) {
+			channel.write(data);
+		}
+	}
+
+	/**
+	 * writes the sound next to the file of the frames, with the same name and the wav extension
+	 * @param soundBytes all the bytes of the sound file
+	 * @throws IOException if the sound can't be read or written
+	 */
+	private void writeSound(byte[] soundBytes) throws IOException {
+		String name = file.getName();
+		if(name.lastIndexOf('.') > 0) name = name.substring(0, name.lastIndexOf('.'));
+		try {
+			AudioInputStream sound = AudioSystem.getAudioInputStream(new ByteArrayInputStream(soundBytes));
+			AudioSystem.write(sound, AudioFileFormat.Type.WAVE, new File(file.getAbsoluteFile().getParentFile(), name + ".wav"));
+			sound.close();
+		} catch (UnsupportedAudioFileException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#end()
+	 */
+	@Override
+	public void end() throws IOException {
+		if(file != null) { //The standard output stays open
+			channel.close();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see export.FrameSink#abort()
+	 */
+	@Override
+	public void abort() {
+		if(file != null && channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				//Nothing more can be done with a file that can't even be closed
+			}
+		}
+	}
+}
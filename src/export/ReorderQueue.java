@@ -0,0 +1,59 @@
+package export;
+
+/**
+ * This class hands items produced out of order by several threads to one consuming thread, in the order of their index.
+ * It holds at most a fixed number of items: a producer that gets too far ahead of the consumer waits,
+ * so the memory used by the frames in flight stays bounded whatever the speed of the workers and of the output.
+ * @param <T> the type of the items
+ */
+public class ReorderQueue<T> {
+
+	/**
+	 * the waiting items, at the position index % capacity
+	 */
+	private Object[] items;
+	/**
+	 * the index of the next item to take
+	 */
+	private long next = 0;
+
+	/**
+	 * constructs a reorder queue
+	 * @param capacity the number of indices, starting at the next one to take, that can be put without waiting
+	 */
+	public ReorderQueue(int capacity) {
+		items = new Object[capacity];
+	}
+
+	/**
+	 * puts an item. Waits until the item is within the capacity of the queue
+	 * @param index the index of the item. Each index must be put exactly once
+	 * @param item the item, not null
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public synchronized void put(long index, T item) throws InterruptedException {
+		while(index >= next + items.length) {
+			wait();
+		}
+		items[(int) (index % items.length)] = item;
+		notifyAll();
+	}
+
+	/**
+	 * takes the next item in order. Waits until it is put
+	 * @return the item
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T take() throws InterruptedException {
+		int slot = (int) (next % items.length);
+		while(items[slot] == null) {
+			wait();
+		}
+		T item = (T) items[slot];
+		items[slot] = null;
+		next++;
+		notifyAll(); //A producer may be waiting for this slot
+		return item;
+	}
+}
@@ -0,0 +1,133 @@
+package export;
+
+import shapes.ReactiveShape;
+
+/**
+ * This class draws the shapes of a project in an int[] frame buffer (one 0xRRGGBB pixel per int, row after row) without Java2D or JavaFX.
+ * It holds no state, so any number of threads can render different frames at the same time.
+ * Each shape is drawn by walking the pixels of its bounding box, bringing each pixel back in the coordinates of the shape,
+ * and measuring its distance to the edge of the shape. That distance, in pixels, gives the coverage of the fill and of the border,
+ * which makes the edges antialiased at the cost of a few operations per pixel.
+ */
+public class SoftwareRasterizer {
+
+	/**
+	 * the class only has static methods
+	 */
+	private SoftwareRasterizer() {
+	}
+
+	/**
+	 * draws a shape in a frame buffer
+	 * @param pixels the frame buffer
+	 * @param width the width, in pixels, of the frame buffer
+	 * @param height the height, in pixels, of the frame buffer
+	 * @param shapeType the shape type (see ReactiveShape)
+	 * @param shapeWidth the width of the shape, before it is transformed
+	 * @param shapeHeight the height of the shape, before it is transformed
+	 * @param fill the fill color as 0xAARRGGBB. An alpha of 0 means no fill
+	 * @param borderThickness the border thickness, before the shape is transformed
+	 * @param border the border color as 0xAARRGGBB
+	 * @param transform the transform from the coordinates of the shape (centered on the shape) to the pixels: {m00, m01, m02, m10, m11, m12},
+	 * so that pixelX = m00 * x + m01 * y + m02 and pixelY = m10 * x + m11 * y + m12
+	 * @param opacity the opacity of the whole shape, from 0 to 1
+	 */
+	public static void drawShape(int[] pixels, int width, int height, int shapeType, double shapeWidth, double shapeHeight,
+			int fill, double borderThickness, int border, double[] transform, double opacity) {
+		double m00 = transform[0], m01 = transform[1], m02 = transform[2];
+		double m10 = transform[3], m11 = transform[4], m12 = transform[5];
+		double det = m00 * m11 - m01 * m10;
+		if(det == 0 || !(opacity > 0)) return; //Flattened or invisible
+		if((fill >>> 24) == 0 && borderThickness <= 0) return;
+
+		//Inverse transform, from the pixels to the coordinates of the shape
+		double i00 = m11 / det, i01 = -m01 / det, i10 = -m10 / det, i11 = m00 / det;
+		double i02 = -(i00 * m02 + i01 * m12), i12 = -(i10 * m02 + i11 * m12);
+		double pixelsPerUnit = Math.sqrt(Math.abs(det)); //Distances in the shape are converted to pixels with the mean scaling
+
+		double halfWidth = shapeWidth / 2, halfHeight = shapeHeight / 2;
+		double halfBorder = (borderThickness > 0)? borderThickness / 2: 0;
+
+		//Bounding box of the transformed shape, with its border and one pixel for the antialiasing
+		double extentX = halfWidth + halfBorder, extentY = halfHeight + halfBorder;
+		double spanX = Math.abs(m00) * extentX + Math.abs(m01) * extentY + 1;
+		double spanY = Math.abs(m10) * extentX + Math.abs(m11) * extentY + 1;
+		int minX = Math.max(0, (int) Math.floor(m02 - spanX)), maxX = Math.min(width - 1, (int) Math.ceil(m02 + spanX));
+		int minY = Math.max(0, (int) Math.floor(m12 - spanY)), maxY = Math.min(height - 1, (int) Math.ceil(m12 + spanY));
+		if(minX > maxX || minY > maxY) return;
+
+		//Triangle edges, as normalized lines a * x + b * y + c (positive outside)
+		double sideLength = Math.sqrt(halfWidth * halfWidth + shapeHeight * shapeHeight);
+		double sideA = (sideLength == 0)? 0: shapeHeight / sideLength, sideB = (sideLength == 0)? 0: halfWidth / sideLength;
+		double sideC = -halfHeight * sideB;
+
+		double fillAlpha = (fill >>> 24) / 255.0 * opacity, borderAlpha = (border >>> 24) / 255.0 * opacity;
+		for(int py = minY; py <= maxY; py++) {
+			//The shape coordinates move linearly along the row
+			double x = i00 * (minX + 0.5) + i01 * (py + 0.5) + i02;
+			double y = i10 * (minX + 0.5) + i11 * (py + 0.5) + i12;
+			int index = py * width + minX;
+			for(int px = minX; px <= maxX; px++, x += i00, y += i10, index++) {
+				double distance; //Signed distance to the edge of the shape, negative inside
+				switch(shapeType) {
+				case ReactiveShape.RECTANGLE:
+					distance = Math.max(Math.abs(x) - halfWidth, Math.abs(y) - halfHeight);
+					break;
+				case ReactiveShape.CIRCLE:
+					distance = ellipseDistance(x, y, halfWidth, halfHeight);
+					break;
+				case ReactiveShape.TRIANGLE:
+					distance = Math.max(y - halfHeight, sideA * Math.abs(x) - sideB * y + sideC);
+					break;
+				default:
+					return;
+				}
+				distance *= pixelsPerUnit;
+
+				int color = pixels[index];
+				if(fillAlpha > 0 && distance < 0.5) {
+					color = blend(color, fill, fillAlpha * Math.min(1, 0.5 - distance));
+				}
+				if(halfBorder > 0) {
+					double borderDistance = Math.abs(distance) - halfBorder * pixelsPerUnit;
+					if(borderDistance < 0.5) {
+						color = blend(color, border, borderAlpha * Math.min(1, 0.5 - borderDistance));
+					}
+				}
+				pixels[index] = color;
+			}
+		}
+	}
+
+	/**
+	 * approximates the signed distance from a point to an ellipse centered on the origin
+	 * @param x the x coordinate of the point
+	 * @param y the y coordinate of the point
+	 * @param a the radius in x
+	 * @param b the radius in y
+	 * @return the distance, negative inside the ellipse
+	 */
+	private static double ellipseDistance(double x, double y, double a, double b) {
+		if(a <= 0 || b <= 0) return Double.MAX_VALUE;
+		double k0 = Math.sqrt((x / a) * (x / a) + (y / b) * (y / b));
+		double k1 = Math.sqrt((x / (a * a)) * (x / (a * a)) + (y / (b * b)) * (y / (b * b)));
+		if(k1 == 0) return -Math.min(a, b); //At the center
+		return k0 * (k0 - 1) / k1;
+	}
+
+	/**
+	 * @param destination the current pixel, as 0xRRGGBB
+	 * @param source the color drawn over it, as 0xAARRGGBB (its alpha is ignored)
+	 * @param alpha the coverage of the source, from 0 to 1
+	 * @return the blended pixel
+	 */
+	private static int blend(int destination, int source, double alpha) {
+		if(alpha <= 0) return destination;
+		if(alpha >= 1) return source & 0xFFFFFF;
+		int a = (int) (alpha * 256);
+		int red = ((destination >> 16) & 0xFF) + ((((source >> 16) & 0xFF) - ((destination >> 16) & 0xFF)) * a >> 8);
+		int green = ((destination >> 8) & 0xFF) + ((((source >> 8) & 0xFF) - ((destination >> 8) & 0xFF)) * a >> 8);
+		int blue = (destination & 0xFF) + (((source & 0xFF) - (destination & 0xFF)) * a >> 8);
+		return (red << 16) | (green << 8) | blue;
+	}
+}
@@ -0,0 +1,244 @@
+package export;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import audio.AudioPlayer;
+import audio.OfflineAnalysis;
+import reactions.BakedReactions;
+import reactions.ReactionPlan;
+
+/**
+ * This class turns a project into a video without playing it. It steps through the sound at a fixed frame rate,
+ * analyzes it offline as fast as possible (or reads the baked reactions), runs the reaction plan and renders each frame,
+ * so the export takes only the time needed to compute and write the frames instead of the length of the song.
+ * The analysis and the reactions run on the calling thread, in order. Each frame is then rendered by a pool of worker threads (one per core),
+ * and compressed there too when the sink is an EncodingFrameSink. A writing thread gets the frames back in order through a ReorderQueue. A fixed number of frame buffers circulate between
+ * these threads, so the memory used does not depend on the length of the video.
+ */
+public class VideoExporter {
+
+	/**
+	 * the object drawing the frames
+	 */
+	private FrameRenderer renderer;
+	/**
+	 * the number of frames per second of the video
+	 */
+	private int frameRate;
+	/**
+	 * the number of threads rendering the frames
+	 */
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	/**
+	 * the progression of the export (ranges from 0 to 1)
+	 */
+	private volatile double progression = 0;
+	/**
+	 * the first error of the writing thread or of a worker. Equals null while everything works
+	 */
+	private volatile Exception failure;
+
+	/**
+	 * constructs a video exporter
+	 * @param renderer the object drawing the frames
+	 * @param frameRate the number of frames per second of the video
+	 */
+	public VideoExporter(FrameRenderer renderer, int frameRate) {
+		this.renderer = renderer;
+		this.frameRate = frameRate;
+	}
+
+	/**
+	 * exports a video. Runs on the calling thread until the whole video is written
+	 * @param plan a freshly compiled plan of the shapes of the renderer. Its envelopes are advanced, so it must not be used for playback at the same time
+	 * @param baked the baked reactions of the project, or null if it is not baked. The plan is not used when there are baked reactions
+	 * @param soundBytes all the bytes of the sound file of the project
+	 * @param sink the destination of the video
+	 * @return the number of frames written
+	 * @throws UnsupportedAudioFileException if the sound can't be read
+	 * @throws IOException if the sound can't be read or the video can't be written
+	 */
+	public long export(ReactionPlan plan, BakedReactions baked, byte[] soundBytes, final FrameSink sink) throws UnsupportedAudioFileException, IOException {
+		OfflineAnalysis analysis = new OfflineAnalysis(soundBytes);
+		float sampleRate = analysis.getFormat().getSampleRate();
+		long length = (baked != null)? (long) baked.getFrameCount() * AudioPlayer.BUFFER_SIZE: analysis.getLength();
+
+		//The frame buffers in flight: taken by the calling thread, rendered by a worker, written and given back by the writing thread
+		final ArrayBlockingQueue<FrameSlot> freeFrames = new ArrayBlockingQueue<FrameSlot>(threadCount * 2);
+		for(int i = 0; i < threadCount * 2; i++) {
+			freeFrames.add(new FrameSlot(renderer.createFrame()));
+		}
+		final ReorderQueue<FrameSlot> renderedFrames = new ReorderQueue<FrameSlot>(threadCount * 2 + 1);
+		final FrameSlot endOfVideo = new FrameSlot(null); //Put after the last frame
+		final EncodingFrameSink encoder = (sink instanceof EncodingFrameSink)? (EncodingFrameSink) sink: null;
+		double[] bakedProperties = (baked != null)? new double[baked.getPropertyCount()]: null; //The JavaFX Application thread may read the same baked reactions during playback
+		
+		ExecutorService workers = null;
+		Thread writer = null;
+		long frame = 0, analyzedSamples = 0;
+		boolean soundLeft = true, finished = false;
+		try {
+			BufferedImage first = freeFrames.peek().image;
+			sink.begin(first.getWidth(), first.getHeight(), frameRate, soundBytes);
+			
+			workers = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Export worker");
+					thread.setDaemon(true); //Never keeps the program open
+					return thread;
+				}
+			});
+			writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while(true) {
+							FrameSlot slot = renderedFrames.take();
+							if(slot == endOfVideo) break;
+							if(failure == null) {
+								try {
+									if(encoder != null) {
+										encoder.writeEncodedFrame(slot.encoded);
+									}
+									else {
+										sink.writeFrame(slot.image);
+									}
+								} catch (IOException | RuntimeException e) {
+									failure = e; //Keep taking the frames so that nobody waits forever, but stop writing
+								}
+							}
+							slot.encoded = null;
+							freeFrames.put(slot);
+						}
+					} catch (InterruptedException e) {
+						if(failure == null) failure = e;
+					}
+				}
+			}, "Export writer");
+			writer.setDaemon(true); //Never keeps the program open, even if the export stops without ending the video
+			writer.start();
+			
+			while(failure == null) {
+				long position = Math.round(frame * (double) sampleRate / frameRate); //The sample frame shown by this video frame
+				
+				double[] properties;
+				if(baked != null) {
+					if(position >= length) break;
+					properties = baked.getProperties(position, bakedProperties);
+				}
+				else {
+					//Run the plan over every sound sample up to this frame, so the envelopes move like during playback
+					while(soundLeft && (analyzedSamples == 0 || analyzedSamples < position)) {
+						soundLeft = analysis.next();
+						if(soundLeft) {
+							plan.process(analysis.getFrame());
+							analyzedSamples = analysis.getFrame().getSamplePosition();
+						}
+					}
+					if(!soundLeft && position >= analyzedSamples) break;
+					properties = plan.acquireProperties();
+				}
+				
+				final double[] frameProperties = properties.clone(); //The plan and the baked reactions reuse their arrays
+				final FrameSlot slot = freeFrames.take();
+				final long index = frame;
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							renderer.render(frameProperties, slot.image);
+							if(encoder != null && failure == null) { //Compressed here, on all the cores
+								slot.encoded = encoder.encodeFrame(slot.image);
+							}
+						} catch (IOException | RuntimeException e) {
+							failure = e;
+						}
+						try {
+							renderedFrames.put(index, slot); //Always put, even after a failure, so the writing thread moves on
+						} catch (InterruptedException e) {
+							failure = e;
+						}
+					}
+				});
+				frame++;
+				if(length > 0) progression = Math.min(1, position / (double) length);
+			}
+			
+			renderedFrames.put(frame, endOfVideo);
+			writer.join();
+			
+			if(failure instanceof IOException) throw (IOException) failure;
+			if(failure instanceof RuntimeException) throw (RuntimeException) failure;
+			if(failure != null) throw new InterruptedIOException("The export was interrupted");
+			
+			sink.end();
+			finished = true;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("The export was interrupted");
+		} finally {
+			//Whatever stopped the export, no thread is left waiting and the output is closed
+			if(workers != null) workers.shutdownNow();
+			if(writer != null) stopWriter(writer);
+			analysis.close();
+			if(!finished) sink.abort();
+		}
+		
+		progression = 1;
+		return frame;
+	}
+
+	/**
+	 * stops the writing thread if it is still running and waits for it, so that it does not use the sink while it is aborted
+	 * @param writer the writing thread
+	 */
+	private void stopWriter(Thread writer) {
+		boolean interrupted = false;
+		writer.interrupt(); //Does nothing if it already ended the video
+		while(writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true; //Waits anyway: the writing thread stops as soon as it sees its own interruption
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * This class holds a frame buffer and its compressed data while it goes from a thread to the other
+	 */
+	private static class FrameSlot {
+		
+		/**
+		 * the frame buffer
+		 */
+		private final BufferedImage image;
+		/**
+		 * the compressed frame. Equals null if the sink does not compress its frames
+		 */
+		private byte[] encoded;
+		
+		/**
+		 * @param image the frame buffer
+		 */
+		private FrameSlot(BufferedImage image) {
+			this.image = image;
+		}
+	}
+
+	/**
+	 * @return the progression of the export (ranges from 0 to 1)
+	 */
+	public double getProgression() {
+		return progression;
+	}
+}
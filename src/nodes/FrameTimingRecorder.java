@@ -0,0 +1,161 @@
+package nodes;
+
+import java.util.Arrays;
+
+import audio.AnalysisFrame;
+
+/**
+ * This class measures how smoothly the visuals are animated. It records, in ring buffers of the last CAPACITY values, the time taken by each
+ * update of the shapes, the interval between two pulses of the render loop and the age of the analysis frame shown by each update
+ * (the time between its analysis by the audio thread and its display). It also counts the analysis frames that were never displayed
+ * because a newer one was published before the next pulse. Nothing is allocated while recording: the percentiles are computed on demand.
+ * All the methods must be called from the JavaFX Application thread.
+ */
+public class FrameTimingRecorder {
+
+	/**
+	 * the number of values kept for each measure. A power of two, so that the ring buffers wrap with a mask
+	 */
+	public static final int CAPACITY = 1024;
+	/**
+	 * the measures that can be summarized
+	 */
+	public static final int UPDATE_DURATION = 0, PULSE_INTERVAL = 1, FRAME_AGE = 2;
+	/**
+	 * the names of the measures, indexed by UPDATE_DURATION, PULSE_INTERVAL and FRAME_AGE
+	 */
+	private static final String[] NAMES = {"update", "pulse", "age"};
+
+	/**
+	 * the last values of each measure, in nanoseconds
+	 */
+	private long[][] values = new long[3][CAPACITY];
+	/**
+	 * the total number of values recorded for each measure. The next value of a measure goes at counts[measure] % CAPACITY
+	 */
+	private long[] counts = new long[3];
+	/**
+	 * the array in which the values are sorted to compute the percentiles
+	 */
+	private long[] sorted = new long[CAPACITY];
+	/**
+	 * the time, in nanoseconds, of the last pulse. Negative before the first pulse
+	 */
+	private long lastPulse = -1;
+	/**
+	 * the index of the last analysis frame displayed. Negative before the first update
+	 */
+	private long lastFrameIndex = -1;
+	/**
+	 * the number of analysis frames displayed
+	 */
+	private long displayedFrames = 0;
+	/**
+	 * the number of analysis frames published by the audio thread but never displayed
+	 */
+	private long droppedFrames = 0;
+
+	/**
+	 * records a pulse of the render loop
+	 * @param now the time of the pulse, in nanoseconds, as given to AnimationTimer.handle()
+	 */
+	public void recordPulse(long now) {
+		if(lastPulse >= 0) {
+			add(PULSE_INTERVAL, now - lastPulse);
+		}
+		lastPulse = now;
+	}
+
+	/**
+	 * records an update of the shapes
+	 * @param start the time, in nanoseconds (System.nanoTime()), at which the update started
+	 * @param end the time, in nanoseconds, at which the update ended
+	 * @param frame the analysis frame shown by the update
+	 */
+	public void recordUpdate(long start, long end, AnalysisFrame frame) {
+		add(UPDATE_DURATION, end - start);
+		if(frame.getCaptureTime() == 0) return; //Silence: never analyzed
+
+		if(frame.getIndex() == lastFrameIndex) return; //Shown again after an edit
+		add(FRAME_AGE, end - frame.getCaptureTime());
+		if(lastFrameIndex >= 0 && frame.getIndex() > lastFrameIndex) { //A smaller index means that another sound was loaded
+			droppedFrames += frame.getIndex() - lastFrameIndex - 1;
+		}
+		lastFrameIndex = frame.getIndex();
+		displayedFrames++;
+	}
+
+	/**
+	 * adds a value to a measure, replacing the oldest one if the ring buffer is full
+	 * @param measure the measure (UPDATE_DURATION, PULSE_INTERVAL or FRAME_AGE)
+	 * @param value the value, in nanoseconds
+	 */
+	private void add(int measure, long value) {
+		values[measure][(int) (counts[measure] & (CAPACITY - 1))] = value;
+		counts[measure]++;
+	}
+
+	/**
+	 * computes a percentile of the last values of a measure
+	 * @param measure the measure (UPDATE_DURATION, PULSE_INTERVAL or FRAME_AGE)
+	 * @param percentile the percentile, from 0 to 100 (50 for the median)
+	 * @return the value, in nanoseconds, below which this percentage of the last values are, or 0 if nothing was recorded
+	 */
+	public long getPercentile(int measure, double percentile) {
+		int size = (int) Math.min(counts[measure], CAPACITY);
+		if(size == 0) return 0;
+
+		System.arraycopy(values[measure], 0, sorted, 0, size);
+		Arrays.sort(sorted, 0, size);
+		int rank = (int) Math.ceil(percentile / 100 * size) - 1; //Nearest rank
+		return sorted[Math.max(0, Math.min(size - 1, rank))];
+	}
+
+	/**
+	 * @param measure the measure (UPDATE_DURATION, PULSE_INTERVAL or FRAME_AGE)
+	 * @return the 50th, 95th and 99th percentiles, in nanoseconds, of the last values of the measure
+	 */
+	public long[] getSummary(int measure) {
+		return new long[] {getPercentile(measure, 50), getPercentile(measure, 95), getPercentile(measure, 99)};
+	}
+
+	/**
+	 * @return the number of analysis frames displayed since the last reset
+	 */
+	public long getDisplayedFrames() {
+		return displayedFrames;
+	}
+
+	/**
+	 * @return the number of analysis frames published by the audio thread but never displayed since the last reset
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	/**
+	 * forgets all the recorded values
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		lastPulse = -1;
+		lastFrameIndex = -1;
+		displayedFrames = 0;
+		droppedFrames = 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for(int measure = 0; measure < NAMES.length; measure++) {
+			long[] summary = getSummary(measure);
+			text.append(String.format("%-6s p50 %6.2f  p95 %6.2f  p99 %6.2f ms%n", NAMES[measure], summary[0] / 1e6, summary[1] / 1e6, summary[2] / 1e6));
+		}
+		long published = displayedFrames + droppedFrames;
+		text.append(String.format("dropped %d / %d analysis frames (%.1f%%)", droppedFrames, published, (published == 0)? 0: droppedFrames * 100.0 / published));
+		return text.toString();
+	}
+}
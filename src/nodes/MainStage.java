@@ -8,8 +8,14 @@ import java.util.TimerTask;
 
 import javax.sound.sampled.UnsupportedAudioFileException;
 
+import audio.AnalysisFrame;
+import audio.AnalysisListener;
 import audio.AudioPlayer;
+import reactions.BakedReactions;
+import reactions.Reaction;
+import reactions.ReactionPlan;
 import shapes.ReactiveShape;
+import shapes.ShapeGroup;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
@@ -19,6 +25,8 @@ import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.image.Image;
 import javafx.scene.layout.HBox;
 import javafx.scene.paint.Color;
@@ -34,12 +42,29 @@ constructor of this class is private) and puts the reference to this instance in
 variable so that it can easily be accessed anywhere by accessing this static instance.
  * @author Jerome Parent-Levesque
  */
-public class MainStage extends Application implements EventHandler<WindowEvent>, ChangeListener<Number> {
+public class MainStage extends Application implements EventHandler<WindowEvent>, ChangeListener<Number>, AnalysisListener {
+	
+	/**
+	 * the time, in milliseconds, during which the export indicator tells that the export is done
+	 */
+	private static final long EXPORT_DONE_DELAY = 3000;
 	
 	/**
 	 * the first stage to open, allowing the user to select a file to load
 	 */
 	private SelectFileStage selectFileStage = new SelectFileStage();
+	/**
+	 * the loop updating the screen once per pulse with the last analyzed sound sample
+	 */
+	private RenderLoop renderLoop = new RenderLoop();
+	/**
+	 * the measures of the timing of the updates of the screen
+	 */
+	private FrameTimingRecorder frameTimings = new FrameTimingRecorder();
+	/**
+	 * whether the shapes whose reactions only transform them are cached as bitmaps (see ReactiveShape.updateCachePolicy())
+	 */
+	private boolean shapeCaching = true;
 	
 	/**
 	 * the stage that opens whenever an unexpected error occurs
@@ -96,11 +121,40 @@ animated in function of the music playing
 	 */
 	@FXML private HBox saveIndicator;
 	
+	/**
+	 * the indicator telling the user how far the video export is, and when it is done
+	 */
+	@FXML private HBox exportIndicator;
+	
+	/**
+	 * the text of the export indicator
+	 */
+	@FXML private Label exportLabel;
+	
+	/**
+	 * the progression shown by the export indicator
+	 */
+	@FXML private ProgressIndicator exportProgress;
+	
 	/**
 	 * all the shapes to render on the screen
 	 */
 	private ArrayList<ReactiveShape> shapes = new ArrayList<ReactiveShape>();
 	
+	/**
+	 * all the reactions of the shapes, compiled. Equals null when the project was edited since it was last compiled
+	 */
+	private volatile ReactionPlan reactionPlan;
+	
+	/**
+	 * the baked values of all the reactions. Equals null if the project is not baked (or was edited since it was baked)
+	 */
+	private volatile BakedReactions bakedReactions;
+	/**
+	 * the number of times the shapes, their reactions or the sound changed. Lets a bake running in another thread know whether its result still matches the project
+	 */
+	private long projectVersion = 0;
+	
 	/**
 	 * the current shape being modified. Equals null if no shape is
 selected
@@ -155,33 +209,14 @@ the volume of a sound
 		primaryStage.setOnCloseRequest(this); //Allows to force the program to close
 		
 		hideSaveIndicator();
+		hideExportIndicator();
 		
 		selectFileStage.show();
+		renderLoop.start();
 		
 		//Set Window events
 		primaryStage.widthProperty().addListener(this);
 		primaryStage.heightProperty().addListener(this);
-		primaryStage.maximizedProperty().addListener(new ChangeListener<Boolean>() {
-		    @Override
-		    public void changed(ObservableValue<? extends Boolean> ov, Boolean t, Boolean t1) {
-		    	TimerTask task = new TimerTask() { 
-		    		@Override
-		          	public void run()
-		          	{
-		    			Platform.runLater(new Runnable() {
-							@Override
-							public void run() {
-								videoPane.resize();
-								scaleAllShapes();
-							}		    				
-		    			});
-		          	}
-		        };
-		        
-		        Timer timer = new Timer();
-		        timer.schedule(task, 50); //delay the resize to wait for the sizes to be updated
-		    }
-		});
 	}
 	
 	/**
@@ -196,7 +231,7 @@ the volume of a sound
 	 */
 	public void show() {
 		primaryStage.show(); //After this, the width and height of panes become available
-		videoPane.setInitSize();
+		videoPane.resize();
 	}
 	
 	/**
@@ -206,6 +241,7 @@ the volume of a sound
 		videoPane.setBackground(Color.WHITE);
 		editingPane.setColorPickerValue(Color.WHITE);
 		shapes.clear();
+		invalidateReactionPlan();
 		videoPane.clear();
 		if(player != null)
 			player.stop();
@@ -230,6 +266,9 @@ the volume of a sound
 			else
 				player = new AudioPlayer(soundFile, loop);
 			
+			player.setAnalysisListener(this);
+			projectVersion++;
+			setBakedReactions(null); //The baked values belong to the previous sound
 			playerPane.setSoundTitle(soundFile.getName());
 			playerPane.setSoundProgression(0);
 		} catch (UnsupportedAudioFileException | IOException e) {
@@ -255,6 +294,9 @@ the volume of a sound
 			else
 				player = new AudioPlayer(soundBytes, name, loop);
 			
+			player.setAnalysisListener(this);
+			projectVersion++;
+			setBakedReactions(null); //The baked values belong to the previous sound
 			playerPane.setSoundTitle(name);
 			playerPane.setSoundProgression(0);
 		} catch (UnsupportedAudioFileException e) {
@@ -273,32 +315,142 @@ the volume of a sound
 	 * update either the selectFile stage or the main stage depending on what is displayed
 	 */
 	public void update() {
+		long start = System.nanoTime();
+		AnalysisFrame frame = getCurrentFrame(); //Acquired once so that all shapes react to the same sound sample
 		if(selectFileStage.isShowed()) {
-			selectFileStage.update();
+			selectFileStage.update(frame);
 		}
 		else {
-			updateAllShapes();
+			updateAllShapes(frame);
 		}
+		frameTimings.recordUpdate(start, System.nanoTime(), frame);
 	}
 	
 	/**
-	 * updates all the shapes according to their reactions (Note: the shapes' scale is updated in the shapes' update method)
+	 * @return the measures of the timing of the updates of the screen
+	 */
+	public FrameTimingRecorder getFrameTimings() {
+		return frameTimings;
+	}
+	
+	/**
+	 * @return whether the shapes whose reactions only transform them are cached as bitmaps
+	 */
+	public boolean isShapeCaching() {
+		return shapeCaching;
+	}
+	
+	/**
+	 * turns the caching of the shapes on or off, and forgets the frame timings so that they only measure the new setting
+	 * @param shapeCaching whether the shapes whose reactions only transform them are cached as bitmaps
+	 */
+	public void setShapeCaching(boolean shapeCaching) {
+		this.shapeCaching = shapeCaching;
+		for(ReactiveShape shape: shapes) {
+			shape.updateCachePolicy();
+		}
+		frameTimings.reset();
+	}
+	
+	/**
+	 * updates all the shapes according to their reactions and the last analysis frame
 	 */
 	public void updateAllShapes() {
+		updateAllShapes(getCurrentFrame());
+	}
+	
+	/**
+	 * updates all the shapes according to their reactions, using the property values computed by the audio thread when there are some
+	 * (Note: the shapes' scale is updated in the shapes' update method)
+	 * @param frame the analysis frame of the sound sample to react to
+	 */
+	public void updateAllShapes(AnalysisFrame frame) {
 		playerPane.setSoundProgression(player.getProgression());
 		
-		for(ReactiveShape shape: MainStage.getInstance().getShapes()) {
-    		shape.update();
-    	}
+		double[] properties;
+		BakedReactions baked = bakedReactions;
+		if(baked != null) { //Baked project: no reaction to evaluate, only a lookup
+			properties = baked.getProperties(frame.getSamplePosition());
+		}
+		else {
+			ReactionPlan plan = reactionPlan;
+			if(plan == null) { //Only compiled again after the project was edited
+				plan = compileReactionPlan();
+				reactionPlan = plan;
+			}
+			
+			properties = plan.acquireProperties(); //Computed by the audio thread
+			if(properties == null) { //Nothing was processed since the plan was compiled (the sound is paused): evaluate the plan here
+				plan.evaluate(frame);
+				properties = plan.getProperties();
+			}
+		}
+		
+		if(videoPane.isCanvasMode()) { //All the shapes in a single pass, without touching their nodes
+			videoPane.draw(shapes, properties);
+		}
+		else {
+			for(int i = 0; i < shapes.size(); i++) {
+				shapes.get(i).applyProperties(properties, i * ReactionPlan.PROPERTY_COUNT);
+			}
+		}
+	}
+	
+	/**
+	 * compiles the reactions of all the shapes into a new plan, in the order of the shapes
+	 * @return the new reaction plan
+	 */
+	public ReactionPlan compileReactionPlan() {
+		ArrayList<ArrayList<Reaction>> reactions = new ArrayList<ArrayList<Reaction>>();
+		double[] offsets = new double[shapes.size()];
+		for(int i = 0; i < shapes.size(); i++) {
+			reactions.add(shapes.get(i).getReactions()); //The same list for all the members of a group: evaluated once
+			offsets[i] = shapes.get(i).getGroupOffset();
+		}
+		return ReactionPlan.compile(reactions, offsets);
+	}
+	
+	/**
+	 * tells that the shapes or their reactions changed, so that the reaction plan gets compiled again before the next update.
+	 * The baked reactions, if any, don't match the project anymore and are dropped
+	 */
+	public void invalidateReactionPlan() {
+		reactionPlan = null;
+		projectVersion++;
+		setBakedReactions(null);
+	}
+	
+	/**
+	 * @return the number of times the shapes, their reactions or the sound changed. Must be read on the JavaFX Application thread
+	 */
+	public long getProjectVersion() {
+		return projectVersion;
 	}
 	
 	/**
-	 * scales all the shapes according to the size of the window
+	 * @return the baked values of all the reactions, or null if the project is not baked
 	 */
-	public void scaleAllShapes() {
-		for(ReactiveShape shape: MainStage.getInstance().getShapes()) {
-    		shape.scale();
-    	}
+	public BakedReactions getBakedReactions() {
+		return bakedReactions;
+	}
+	
+	/**
+	 * sets the baked values of all the reactions. While the project is baked, the sound is not analyzed anymore
+	 * @param bakedReactions the baked reactions, or null to go back to evaluating the reactions live
+	 */
+	public void setBakedReactions(BakedReactions bakedReactions) {
+		if(bakedReactions != null && bakedReactions.getTargetCount() != shapes.size())
+			bakedReactions = null; //Baked for other shapes
+		this.bakedReactions = bakedReactions;
+		if(player != null)
+			player.setAnalysisEnabled(bakedReactions == null);
+	}
+	
+	/**
+	 * @return the last analysis frame published by the audio player, or a silent frame if no sound is loaded
+	 */
+	public AnalysisFrame getCurrentFrame() {
+		return (player == null)? AnalysisFrame.SILENCE: player.getFrame();
 	}
 	
 	/**
@@ -314,6 +466,46 @@ the volume of a sound
 	public void showSaveIndicator() {
 		saveIndicator.setVisible(true);
 	}
+	
+	/**
+	 * hides the export indicator
+	 */
+	public void hideExportIndicator() {
+		exportIndicator.setVisible(false);
+	}
+	
+	/**
+	 * shows how far the video export is
+	 * @param progression the progression of the export (ranges from 0 to 1)
+	 */
+	public void showExportProgress(double progression) {
+		exportLabel.setText("Exporting");
+		exportProgress.setProgress(Math.min(progression, 0.99)); //1 only once the file is complete
+		exportIndicator.setVisible(true);
+	}
+	
+	/**
+	 * tells the user that the video export is done, then hides the export indicator after a few seconds
+	 */
+	public void showExportDone() {
+		exportLabel.setText("Exported");
+		exportProgress.setProgress(1);
+		exportIndicator.setVisible(true);
+		
+		new Timer(true).schedule(new TimerTask() {
+			@Override
+			public void run() {
+				Platform.runLater(new Runnable() {
+					@Override
+					public void run() {
+						if(exportProgress.getProgress() >= 1) { //Unless another export started since
+							hideExportIndicator();
+						}
+					}
+				});
+			}
+		}, EXPORT_DONE_DELAY);
+	}
 
 	/**
 	 * @return the main JavaFX Stage 
@@ -411,6 +603,8 @@ the volume of a sound
 	 */
 	public void addShape(ReactiveShape shape) {
 		shapes.add(shape);
+		videoPane.getShapeIndex().add(shape);
+		invalidateReactionPlan();
 	}
 	
 	/**
@@ -419,6 +613,34 @@ the volume of a sound
 	public void removeShape(ReactiveShape shape) {
 		videoPane.removeShape(shape.getFXShape());
 		shapes.remove(shape);
+		videoPane.getShapeIndex().remove(shape);
+		if(shape.getGroup() != null) {
+			shape.getGroup().removeMember(shape);
+		}
+		invalidateReactionPlan();
+	}
+	
+	/**
+	 * turns a shape into a group of copies of it sharing its reactions. The shape is moved in front of all the others
+	 * and the copies are added right after it, so the members of the group follow each other in the project
+	 * @param shape the shape to repeat. Nothing happens if it is already in a group
+	 * @param count the number of members of the group, including the shape
+	 * @param stepX the distance, in logical units, between the x positions of two members
+	 * @param stepY the distance, in logical units, between the y positions of two members
+	 * @param offsetStep the difference between the values added to the reactions of two members
+	 * @return the new group, or null if the shape is already in a group
+	 */
+	public ShapeGroup repeatShape(ReactiveShape shape, int count, double stepX, double stepY, double offsetStep) {
+		if(shape.getGroup() != null) return null;
+		
+		removeShape(shape);
+		videoPane.addShape(shape.getFXShape());
+		addShape(shape);
+		ShapeGroup group = ShapeGroup.repeat(shape, count, stepX, stepY, offsetStep);
+		for(int i = 1; i < group.getMembers().size(); i++) {
+			addShape(group.getMembers().get(i));
+		}
+		return group;
 	}
 	
 	/**
@@ -451,6 +673,8 @@ the volume of a sound
 	 */
 	public void setShapes(ArrayList<ReactiveShape> shapes) {
 		this.shapes = shapes;
+		videoPane.getShapeIndex().setAll(shapes);
+		invalidateReactionPlan();
 	}
 	
 	/**
@@ -492,12 +716,22 @@ the volume of a sound
 		exit(false);
 	}
 
+	/* (non-Javadoc)
+	 * @see audio.AnalysisListener#frameAnalyzed(audio.AnalysisFrame)
+	 */
+	@Override
+	public void frameAnalyzed(AnalysisFrame frame) { //Called from the audio thread, for every sound sample
+		ReactionPlan plan = reactionPlan;
+		if(plan != null && bakedReactions == null) {
+			plan.process(frame);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see javafx.beans.value.ChangeListener#changed(javafx.beans.value.ObservableValue, java.lang.Object, java.lang.Object)
 	 */
 	@Override
 	public void changed(ObservableValue<? extends Number> observable, Number oldVal, Number newVal) {
-		videoPane.resize();
-		scaleAllShapes();
+		videoPane.requestResize(); //Applied once at the next pulse, however many events the window sends
 	}
 }
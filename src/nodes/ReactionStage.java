@@ -3,6 +3,9 @@ package nodes;
 import java.io.IOException;
 
 import reactions.AmplitudeReaction;
+import reactions.BeatReaction;
+import reactions.ExpressionException;
+import reactions.ExpressionReaction;
 import reactions.FrequencyReaction;
 import reactions.Reaction;
 import javafx.collections.FXCollections;
@@ -13,6 +16,7 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
@@ -29,10 +33,30 @@ public class ReactionStage {
 	 * the amplitude type. Used in the 'type' combo box
 	 */
 	private static final String TYPE_AMPLITUDE = "Amplitude";
+	/**
+	 * the root mean square amplitude type. Used in the 'type' combo box
+	 */
+	private static final String TYPE_AMPLITUDE_RMS = "Amplitude (RMS)";
+	/**
+	 * the peak amplitude type. Used in the 'type' combo box
+	 */
+	private static final String TYPE_AMPLITUDE_PEAK = "Amplitude (Peak)";
 	/**
 	 * the frequency type. Used in the 'type' combo box
 	 */
 	private static final String TYPE_FREQUENCY = "Frequency";
+	/**
+	 * the beat type. Used in the 'type' combo box
+	 */
+	private static final String TYPE_BEAT = "Beat";
+	/**
+	 * the expression type. Used in the 'type' combo box
+	 */
+	private static final String TYPE_EXPRESSION = "Expression";
+	/**
+	 * the text of the error label when a number is not valid
+	 */
+	private static final String NUMBER_ERROR = "Please only enter double values in the minimum, maximum, attack, release and decay fields, and only integers in the frequency range fields.";
 	
 	/**
 	 * the size property. Used in the 'property' combo box
@@ -58,6 +82,22 @@ public class ReactionStage {
 	 * the blue color component property. Used in the 'property' combo box
 	 */
 	private static final String PROP_COLOR_B = "Blue Color Component";
+	/**
+	 * the horizontal offset property. Used in the 'property' combo box
+	 */
+	private static final String PROP_TRANSLATE_X = "Horizontal Offset (pixels)";
+	/**
+	 * the vertical offset property. Used in the 'property' combo box
+	 */
+	private static final String PROP_TRANSLATE_Y = "Vertical Offset (pixels)";
+	/**
+	 * the rotation property. Used in the 'property' combo box
+	 */
+	private static final String PROP_ROTATE = "Rotation (degrees)";
+	/**
+	 * the opacity property. Used in the 'property' combo box
+	 */
+	private static final String PROP_OPACITY = "Opacity (0 to 1)";
 	
 	/**
 	 * the stage containing all the options for the user to add or edit a reaction
@@ -73,7 +113,11 @@ public class ReactionStage {
 	 */
 	private ObservableList<String> typeOptions = FXCollections.observableArrayList(
 			TYPE_AMPLITUDE,
-		    TYPE_FREQUENCY
+			TYPE_AMPLITUDE_RMS,
+			TYPE_AMPLITUDE_PEAK,
+		    TYPE_FREQUENCY,
+		    TYPE_BEAT,
+		    TYPE_EXPRESSION
 		);
 	/**
 	 * the JavaFX element allowing the user to select a shape property to animate
@@ -88,7 +132,11 @@ public class ReactionStage {
 			PROP_HEIGHT,
 			PROP_COLOR_R,
 			PROP_COLOR_G,
-			PROP_COLOR_B
+			PROP_COLOR_B,
+			PROP_TRANSLATE_X,
+			PROP_TRANSLATE_Y,
+			PROP_ROTATE,
+			PROP_OPACITY
 		);
 	/**
 	 * the JavaFX element allowing the user to enter a minimum value for the reaction
@@ -98,6 +146,18 @@ public class ReactionStage {
 	 * the JavaFX element allowing the user to enter a maximum value for the reaction
 	 */
 	@FXML private TextField maxValue;
+	/**
+	 * the JavaFX element allowing the user to enter the attack time, in milliseconds, of the reaction's smoothing
+	 */
+	@FXML private TextField attack;
+	/**
+	 * the JavaFX element allowing the user to enter the release time, in milliseconds, of the reaction's smoothing
+	 */
+	@FXML private TextField release;
+	/**
+	 * the JavaFX element allowing the user to make the reaction compare the sound to its recent range instead of a fixed maximum. Is hidden when the selected type is 'Beat'
+	 */
+	@FXML private CheckBox normalized;
 	/**
 	 * the JavaFX element telling the user how to enter a frequency range
 	 */
@@ -114,6 +174,22 @@ public class ReactionStage {
 	 * the JavaFX element allowing the user to enter a maximum frequency that will affect the shape property
 	 */
 	@FXML private TextField maxFreq;
+	/**
+	 * the JavaFX element containing the beat options. Is only shown when the selected type is 'Beat'
+	 */
+	@FXML private HBox beatContainer;
+	/**
+	 * the JavaFX element allowing the user to enter the decay time, in milliseconds, of the pulse of a beat reaction
+	 */
+	@FXML private TextField decay;
+	/**
+	 * the JavaFX element containing the expression options. Is only shown when the selected type is 'Expression'
+	 */
+	@FXML private HBox expressionContainer;
+	/**
+	 * the JavaFX element allowing the user to enter the expression of an expression reaction
+	 */
+	@FXML private TextField expression;
 	/**
 	 * the JavaFX element allowing the user to apply the current reaction to the selected shape
 	 */
@@ -168,24 +244,40 @@ public class ReactionStage {
 			property.setValue(PROP_SIZE);
 			minValue.setText("0");
 			maxValue.setText("2");
+			attack.setText("0");
+			release.setText("0");
 			minFreq.setText("100");
 			maxFreq.setText("150");
-			
-			freqText.setVisible(false);
-			freqContainer.setVisible(false);
+			decay.setText("150");
+			expression.setText("0.5 * bass + 0.5 * beat");
+			normalized.setSelected(true); //New reactions adapt to the loudness, older ones keep their fixed maximum
 		}
 		else {
 			if(reaction instanceof AmplitudeReaction) {
-				type.setValue(TYPE_AMPLITUDE);
-				freqText.setVisible(false);
-				freqContainer.setVisible(false);
+				switch(((AmplitudeReaction) reaction).getSource()) {
+				case AmplitudeReaction.SOURCE_RMS:
+					type.setValue(TYPE_AMPLITUDE_RMS);
+					break;
+				case AmplitudeReaction.SOURCE_PEAK:
+					type.setValue(TYPE_AMPLITUDE_PEAK);
+					break;
+				default:
+					type.setValue(TYPE_AMPLITUDE);
+					break;
+				}
+			}
+			else if(reaction instanceof BeatReaction) {
+				type.setValue(TYPE_BEAT);
+				decay.setText("" + ((BeatReaction) reaction).getDecay());
+			}
+			else if(reaction instanceof ExpressionReaction) {
+				type.setValue(TYPE_EXPRESSION);
+				expression.setText(((ExpressionReaction) reaction).getExpression());
 			}
 			else {
 				type.setValue(TYPE_FREQUENCY);
 				minFreq.setText("" + ((FrequencyReaction) reaction).getMinFreq());
 				maxFreq.setText("" + ((FrequencyReaction) reaction).getMaxFreq());
-				freqText.setVisible(true);
-				freqContainer.setVisible(true);
 			}
 			
 			switch(reaction.getReactionType()) {
@@ -207,12 +299,28 @@ public class ReactionStage {
 			case Reaction.COLOR_BLUE:
 				property.setValue(PROP_COLOR_B);
 				break;
+			case Reaction.TRANSLATE_X:
+				property.setValue(PROP_TRANSLATE_X);
+				break;
+			case Reaction.TRANSLATE_Y:
+				property.setValue(PROP_TRANSLATE_Y);
+				break;
+			case Reaction.ROTATE:
+				property.setValue(PROP_ROTATE);
+				break;
+			case Reaction.OPACITY:
+				property.setValue(PROP_OPACITY);
+				break;
 			}
 			
 			minValue.setText("" + reaction.getMinValue());
 			maxValue.setText("" + reaction.getMaxValue());
+			attack.setText("" + reaction.getAttack());
+			release.setText("" + reaction.getRelease());
+			normalized.setSelected(reaction.isNormalized());
 		}
 		
+		showTypeOptions();
 		stage.show();
 	}
 	
@@ -240,11 +348,54 @@ public class ReactionStage {
 			return Reaction.COLOR_RED;
 		case PROP_COLOR_G:
 			return Reaction.COLOR_GREEN;
+		case PROP_TRANSLATE_X:
+			return Reaction.TRANSLATE_X;
+		case PROP_TRANSLATE_Y:
+			return Reaction.TRANSLATE_Y;
+		case PROP_ROTATE:
+			return Reaction.ROTATE;
+		case PROP_OPACITY:
+			return Reaction.OPACITY;
 		default:
 			return Reaction.COLOR_BLUE;
 		}
 	}
 	
+	/**
+	 * helper method to know whether the currently selected reaction type is one of the amplitude types
+	 * @return whether the selected type in the 'type' combo box is an amplitude type
+	 */
+	private boolean isAmplitudeType() {
+		return type.getValue() == TYPE_AMPLITUDE || type.getValue() == TYPE_AMPLITUDE_RMS || type.getValue() == TYPE_AMPLITUDE_PEAK;
+	}
+	
+	/**
+	 * helper method to show only the options used by the currently selected reaction type
+	 */
+	private void showTypeOptions() {
+		boolean frequency = type.getValue() == TYPE_FREQUENCY;
+		freqText.setVisible(frequency);
+		freqContainer.setVisible(frequency);
+		beatContainer.setVisible(type.getValue() == TYPE_BEAT);
+		expressionContainer.setVisible(type.getValue() == TYPE_EXPRESSION);
+		normalized.setVisible(frequency || isAmplitudeType()); //The features of the expressions are always normalized
+	}
+	
+	/**
+	 * helper method to get the amplitude source matching the currently selected reaction type
+	 * @return the amplitude source of the selected type in the 'type' combo box
+	 */
+	private int getAmplitudeSource() {
+		switch(type.getValue()) {
+		case TYPE_AMPLITUDE_RMS:
+			return AmplitudeReaction.SOURCE_RMS;
+		case TYPE_AMPLITUDE_PEAK:
+			return AmplitudeReaction.SOURCE_PEAK;
+		default:
+			return AmplitudeReaction.SOURCE_MEAN;
+		}
+	}
+	
 	//===== EVENTS ======
 	/**
 	 * JavaFX event triggered when the user presses the cancel button
@@ -262,22 +413,40 @@ public class ReactionStage {
 	@FXML
 	protected void applyPressed(ActionEvent e) {
 		try {
-			if(reaction != null)
-				MainStage.getInstance().getSelectedShape().removeReaction(reaction);
+			double attackTime = Double.parseDouble(attack.getText());
+			double releaseTime = Double.parseDouble(release.getText());
+			if(attackTime < 0 || releaseTime < 0)
+				throw new NumberFormatException();
 			
-			if(type.getValue() == TYPE_AMPLITUDE)
-				reaction = new AmplitudeReaction(Double.parseDouble(minValue.getText()), Double.parseDouble(maxValue.getText()), getReactionProperty());
+			Reaction newReaction; //Created before removing the old one, so that an invalid input leaves the shape unchanged
+			if(isAmplitudeType())
+				newReaction = new AmplitudeReaction(Double.parseDouble(minValue.getText()), Double.parseDouble(maxValue.getText()), getReactionProperty(), getAmplitudeSource());
+			else if(type.getValue() == TYPE_BEAT)
+				newReaction = new BeatReaction(Double.parseDouble(decay.getText()), Double.parseDouble(minValue.getText()), Double.parseDouble(maxValue.getText()), getReactionProperty());
+			else if(type.getValue() == TYPE_EXPRESSION)
+				newReaction = new ExpressionReaction(expression.getText(), Double.parseDouble(minValue.getText()), Double.parseDouble(maxValue.getText()), getReactionProperty());
 			else
-				reaction = new FrequencyReaction(Integer.parseInt(minFreq.getText()), Integer.parseInt(maxFreq.getText()), Double.parseDouble(minValue.getText()), Double.parseDouble(maxValue.getText()), getReactionProperty());
+				newReaction = new FrequencyReaction(Integer.parseInt(minFreq.getText()), Integer.parseInt(maxFreq.getText()), Double.parseDouble(minValue.getText()), Double.parseDouble(maxValue.getText()), getReactionProperty());
 			
+			newReaction.setAttack(attackTime);
+			newReaction.setRelease(releaseTime);
+			newReaction.setNormalized(normalized.isSelected() && normalized.isVisible());
+			
+			if(reaction != null)
+				MainStage.getInstance().getSelectedShape().removeReaction(reaction);
+			reaction = newReaction;
 			MainStage.getInstance().getSelectedShape().addReaction(reaction); //Add the reaction to the selected shape
 			MainStage.getInstance().getSelectedShape().update();
-			MainStage.getInstance().getSelectedShape().scale();
 			
 			hide(); //hide only if no errors occured
 				
+		} catch(ExpressionException ex) {
+			//The expression is not valid
+			error.setText(ex.getMessage());
+			error.setVisible(true);
 		} catch(Exception ex) {
 			//Some values were not double or integers
+			error.setText(NUMBER_ERROR);
 			error.setVisible(true);
 		}
 	}
@@ -288,16 +457,14 @@ public class ReactionStage {
 	 */
 	@FXML
 	protected void typeChanged(ActionEvent e) {
-		if(type.getValue() == TYPE_AMPLITUDE) {
-			freqText.setVisible(false);
-			freqContainer.setVisible(false);
+		if(type.getValue() == TYPE_BEAT) {
+			decay.setText("150");
 		}
-		else {
+		else if(type.getValue() == TYPE_FREQUENCY) {
 			minFreq.setText("100");
 			maxFreq.setText("150");
-			freqText.setVisible(true);
-			freqContainer.setVisible(true);
 		}
+		showTypeOptions();
 	}
 	
 	/**
@@ -309,7 +476,6 @@ public class ReactionStage {
 		if(reaction != null) {
 			MainStage.getInstance().getSelectedShape().removeReaction(reaction);
 			MainStage.getInstance().getSelectedShape().update(); //Refresh the current size of the shape
-			MainStage.getInstance().getSelectedShape().scale();
 			hide();
 		}
 	}
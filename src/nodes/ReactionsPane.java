@@ -3,6 +3,8 @@ package nodes;
 import java.io.IOException;
 
 import reactions.AmplitudeReaction;
+import reactions.BeatReaction;
+import reactions.ExpressionReaction;
 import reactions.Reaction;
 import shapes.ReactiveShape;
 import javafx.event.ActionEvent;
@@ -56,6 +58,10 @@ public class ReactionsPane extends VBox {
 			String text = "";
 			if(reaction instanceof AmplitudeReaction)
 				text = "Amplitude Reaction";
+			else if(reaction instanceof BeatReaction)
+				text = "Beat Reaction";
+			else if(reaction instanceof ExpressionReaction)
+				text = "Expression Reaction";
 			else
 				text = "Frequency Reaction";
 			
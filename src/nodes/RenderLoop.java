@@ -0,0 +1,46 @@
+package nodes;
+
+import audio.AudioPlayer;
+import javafx.animation.AnimationTimer;
+
+/**
+ * This class drives the updates of the screen. It runs once per JavaFX pulse (usually 60 times per second) on the JavaFX Application thread
+ * and pulls the last analysis frame published by the audio player, if there is a new one.
+ * The audio thread publishes a frame every sound sample (about 43 times per second at 44.1 kHz) and never posts anything to the JavaFX Application thread:
+ * when several frames were published between two pulses, only the newest one is drawn and the others are dropped.
+ * The resizes of the video pane are also applied here, once per pulse, and the timing of the pulses is given to the FrameTimingRecorder of the main stage.
+ */
+public class RenderLoop extends AnimationTimer {
+
+	/**
+	 * the time, in nanoseconds, between two refreshes of the timing readout
+	 */
+	private static final long READOUT_PERIOD = 250000000;
+	
+	/**
+	 * the time, in nanoseconds, of the last refresh of the timing readout
+	 */
+	private long lastReadout = 0;
+
+	/* (non-Javadoc)
+	 * @see javafx.animation.AnimationTimer#handle(long)
+	 */
+	@Override
+	public void handle(long now) {
+		MainStage mainStage = MainStage.getInstance();
+		mainStage.getFrameTimings().recordPulse(now);
+		mainStage.getVideoPane().applyPendingResize(); //At most one layout per pulse while the window is being resized
+		
+		AudioPlayer player = mainStage.getPlayer();
+		//Nothing to redraw while the sound is paused, unless the canvas was invalidated by an edit
+		if(player != null && (player.hasNewFrame() || mainStage.getVideoPane().isCanvasInvalid())) {
+			mainStage.update();
+		}
+		
+		//A few times per second only: the text itself costs a layout
+		if(mainStage.getVideoPane().isTimingReadoutVisible() && now - lastReadout >= READOUT_PERIOD) {
+			mainStage.getVideoPane().setTimingReadout(mainStage.getFrameTimings().toString());
+			lastReadout = now;
+		}
+	}
+}
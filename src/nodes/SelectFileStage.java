@@ -2,6 +2,8 @@ package nodes;
 
 import java.io.File;
 import java.io.IOException;
+
+import audio.AnalysisFrame;
 import reactions.FrequencyReaction;
 import reactions.Reaction;
 import javafx.event.ActionEvent;
@@ -108,9 +110,10 @@ public class SelectFileStage implements EventHandler<WindowEvent> {
 	
 	/**
 	 * updates the size of the logo based on the the frequency of the intro sound
+	 * @param frame the analysis frame of the sound sample to react to
 	 */
-	public void update() {
-		double value = reaction.update();
+	public void update(AnalysisFrame frame) {
+		double value = reaction.update(frame);
 		logo.setScaleX(value);
 		logo.setScaleY(value);
 	}
@@ -13,20 +13,36 @@ import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.imageio.ImageIO;
 
+import audio.OfflineAnalysis;
+import export.ExportShape;
+import export.FrameRenderer;
+import export.FrameSink;
+import export.MjpegAviSink;
+import export.PngSequenceSink;
+import export.RawStreamSink;
+import export.VideoExporter;
+
 import reactions.AmplitudeReaction;
+import reactions.BakedReactions;
 import reactions.FrequencyReaction;
+import reactions.Reaction;
+import reactions.ReactionPlan;
 import shapes.ReactiveShape;
+import shapes.ShapeGroup;
 import javafx.application.Platform;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.MenuBar;
 import javafx.scene.image.Image;
 import javafx.scene.paint.Color;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 
 /**
@@ -36,6 +52,29 @@ import javafx.stage.FileChooser;
  */
 public class TopMenuBar extends MenuBar {
 	
+	/**
+	 * the version of the ampl!tude file format written by this program.
+	 * It is written as a negative number where the shape count used to be, so that files from before the versioning are still recognized.
+	 * Since the fifth version, each entry of the shapes is followed by the instances of its group, or null for a shape that is not in a group
+	 */
+	private static final int FILE_VERSION = 5;
+	/**
+	 * the number of shapes in the row created by the 'repeat shape' option
+	 */
+	private static final int REPEAT_COUNT = 8;
+	/**
+	 * the space, in logical units, between two shapes of the row created by the 'repeat shape' option
+	 */
+	private static final double REPEAT_SPACING = 10;
+	/**
+	 * the width, height and frame rate of the AVI previews. Lower than those of the other exports, so that a few minutes of song fit in the size limit of AVI files
+	 */
+	private static final int PREVIEW_WIDTH = 1280, PREVIEW_HEIGHT = 720, PREVIEW_FRAME_RATE = 30;
+	/**
+	 * the time, in milliseconds, between two updates of the export indicator
+	 */
+	private static final long EXPORT_PROGRESS_PERIOD = 250;
+	
 	/**
 	 * the file to which the project is saved
 	 */
@@ -163,8 +202,16 @@ public class TopMenuBar extends MenuBar {
 			        	output.writeDouble(MainStage.getInstance().getPrimaryStage().getWidth());
 			        	
 			        	//write to the file created 
-			        	output.writeInt(shapes.size());
+			        	output.writeInt(-FILE_VERSION);
+			        	int entryCount = 0; //A whole group is a single entry
+			        	for(ReactiveShape shape: shapes) {
+			        		if(shape.getGroup() == null || shape.getGroup().getMembers().get(0) == shape) entryCount++;
+			        	}
+			        	output.writeInt(entryCount);
 			        	for(int i = 0; i < shapes.size(); i++){
+			        		ShapeGroup group = shapes.get(i).getGroup();
+			        		if(group != null && group.getMembers().get(0) != shapes.get(i)) continue; //Written with the first member of its group
+			        		
 			        		output.writeObject(new String[] {
 			        				"" + shapes.get(i).getShapeType(),
 			        				"" + shapes.get(i).getXPosition(),
@@ -178,10 +225,15 @@ public class TopMenuBar extends MenuBar {
 			        				});
 			        		
 			        		//reactions of the shape
-			        		output.writeObject(shapes.get(i).getAmplitudeReactions());
-			        		output.writeObject(shapes.get(i).getFrequencyReactions());
+			        		output.writeObject(new ArrayList<Reaction>(shapes.get(i).getReactions()));
+			        		
+			        		//position and offset of each member of the group: the other members are copies of the first one
+			        		output.writeObject((group != null)? group.getInstances(): null);
 			        	}
 			        	
+			        	//baked values of the reactions (null if the project is not baked)
+			        	output.writeObject(MainStage.getInstance().getBakedReactions());
+			        	
 			        	output.close();
 			        	saving = false;
 			        	
@@ -308,6 +360,13 @@ public class TopMenuBar extends MenuBar {
 			MainStage.getInstance().getPrimaryStage().setWidth(input.readDouble());
 		
 			int shapeSize = input.readInt();
+			int version = 1;
+			if(shapeSize < 0) { //versioned file
+				version = -shapeSize;
+				shapeSize = input.readInt();
+			}
+			final boolean pixelCoordinates = version < 4; //Before the fourth version, the shapes were saved in pixels of the video pane
+			final ArrayList<ReactiveShape> loadedShapes = new ArrayList<ReactiveShape>();
 			for(int i = 0; i < shapeSize; i++) {
 				String[] values = (String[])(input.readObject());
 				ReactiveShape currentShape = new ReactiveShape(Integer.parseInt(values[0]),
@@ -320,9 +379,31 @@ public class TopMenuBar extends MenuBar {
 						Integer.parseInt(values[7]),
 						Color.valueOf(values[8]));
 				
-				currentShape.getReactions().addAll((ArrayList<AmplitudeReaction>)(input.readObject()));
-				currentShape.getReactions().addAll((ArrayList<FrequencyReaction>)(input.readObject()));
-				MainStage.getInstance().addShape(currentShape);
+				if(version >= 2) {
+					currentShape.getReactions().addAll((ArrayList<Reaction>)(input.readObject()));
+				}
+				else { //the first version only knew amplitude and frequency reactions
+					currentShape.getReactions().addAll((ArrayList<AmplitudeReaction>)(input.readObject()));
+					currentShape.getReactions().addAll((ArrayList<FrequencyReaction>)(input.readObject()));
+				}
+				currentShape.updateCachePolicy(); //The reactions were added without addReaction()
+				
+				double[] instances = (version >= 5)? (double[])(input.readObject()): null;
+				if(instances != null) { //A group: the shape is the template of its members
+					ShapeGroup group = ShapeGroup.create(currentShape, new ArrayList<Reaction>(currentShape.getReactions()), instances);
+					for(ReactiveShape member: group.getMembers()) {
+						MainStage.getInstance().addShape(member);
+						loadedShapes.add(member);
+					}
+				}
+				else {
+					MainStage.getInstance().addShape(currentShape);
+					loadedShapes.add(currentShape);
+				}
+			}
+			
+			if(version >= 3) {
+				MainStage.getInstance().setBakedReactions((BakedReactions)(input.readObject()));
 			}
 			
 			TimerTask task = new TimerTask() { 
@@ -332,8 +413,16 @@ public class TopMenuBar extends MenuBar {
 	    			Platform.runLater(new Runnable() {
 						@Override
 						public void run() {
-							MainStage.getInstance().getVideoPane().setInitSize();
-							MainStage.getInstance().scaleAllShapes();
+							VideoPane vp = MainStage.getInstance().getVideoPane();
+							vp.resize();
+							if(pixelCoordinates) { //Bring the shapes in the logical space, keeping them where they were on the screen
+								for(ReactiveShape shape: loadedShapes) {
+									shape.setXPosition(shape.getXPosition() / vp.getWidthFactor());
+									shape.setYPosition(shape.getYPosition() / vp.getHeightFactor());
+									shape.setWidth(shape.getWidth() / vp.getWidthFactor());
+									shape.setHeight(shape.getHeight() / vp.getHeightFactor());
+								}
+							}
 							MainStage.getInstance().updateAllShapes();
 						}		    				
 	    			});
@@ -349,6 +438,226 @@ public class TopMenuBar extends MenuBar {
 		}
 	}
 	
+	/**
+	 * method triggered by JavaFX when the user clicks on the 'bake reactions' option in the menu bar.
+	 * Runs the whole sound through the reactions in another thread, then plays the project from the baked values
+	 * @param event the JavaFX event
+	 */
+	@FXML
+	protected void bakePressed(ActionEvent event){
+		if(MainStage.getInstance().getPlayer() == null) return;
+		
+		final ReactionPlan plan = MainStage.getInstance().compileReactionPlan(); //A plan of its own: the envelopes of the live one keep running
+		final byte[] soundBytes = MainStage.getInstance().getPlayer().getSoundBytes();
+		final long version = MainStage.getInstance().getProjectVersion();
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final BakedReactions baked = BakedReactions.bake(plan, new OfflineAnalysis(soundBytes));
+					
+					Platform.runLater(new Runnable() { //Only way to modify the GUI from another thread than the Application thread
+					    @Override
+					    public void run() {
+					    	if(MainStage.getInstance().getProjectVersion() == version) { //Otherwise the project was edited during the bake
+					    		MainStage.getInstance().setBakedReactions(baked);
+					    	}
+					    }
+					});
+				} catch (Exception e) {
+					Platform.runLater(new Runnable() {
+					    @Override
+					    public void run() {
+					    	MainStage.getInstance().getErrorStage().show("An error occured while trying to bake the reactions. Sorry for the inconvenience.", "TMB375");
+					    }
+					});
+				}
+			}
+		}).start();
+	}
+	
+	/**
+	 * method triggered by JavaFX when the user clicks on the 'remove baked reactions' option in the menu bar. The reactions are evaluated live again
+	 * @param event the JavaFX event
+	 */
+	@FXML
+	protected void unbakePressed(ActionEvent event){
+		MainStage.getInstance().setBakedReactions(null);
+	}
+	
+	/**
+	 * method triggered by JavaFX when the user clicks on the 'export video' option in the menu bar.
+	 * Renders the project as a sequence of PNG images and a WAV file in the chosen folder
+	 * @param event the JavaFX event
+	 */
+	@FXML
+	protected void exportPressed(ActionEvent event){
+		if(MainStage.getInstance().getPlayer() == null) return;
+		
+		DirectoryChooser directoryChooser = new DirectoryChooser();
+		directoryChooser.setTitle("Export Video");
+		File directory = directoryChooser.showDialog(MainStage.getInstance().getPrimaryStage());
+		if(directory != null) {
+			exportVideo(new PngSequenceSink(directory), 1920, 1080, 60);
+		}
+	}
+	
+	/**
+	 * method triggered by JavaFX when the user clicks on the 'repeat shape' option in the menu bar.
+	 * Turns the selected shape into a row of REPEAT_COUNT copies sharing its reactions, which are evaluated only once for the whole row
+	 * @param event the JavaFX event
+	 */
+	@FXML
+	protected void repeatPressed(ActionEvent event){
+		ReactiveShape shape = MainStage.getInstance().getSelectedShape();
+		if(shape == null || shape.getGroup() != null) return;
+		
+		MainStage.getInstance().repeatShape(shape, REPEAT_COUNT, shape.getWidth() + shape.getBorderThickness() + REPEAT_SPACING, 0, 0);
+	}
+	
+	/**
+	 * method triggered by JavaFX when the user clicks on the 'export Y4M stream' option in the menu bar.
+	 * Renders the project as uncompressed Y4M frames in a single file, with the sound in a WAV file next to it, ready to be encoded
+	 * @param event the JavaFX event
+	 */
+	@FXML
+	protected void exportY4mPressed(ActionEvent event){
+		if(MainStage.getInstance().getPlayer() == null) return;
+		
+		FileChooser fileChooser = new FileChooser();
+		fileChooser.setTitle("Export Y4M Stream");
+		fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Y4M files	(*.y4m)","*.y4m"));
+		File file = fileChooser.showSaveDialog(MainStage.getInstance().getPrimaryStage());
+		if(file != null) {
+			exportVideo(new RawStreamSink(file, RawStreamSink.Y4M), 1920, 1080, 60);
+		}
+	}
+	
+	/**
+	 * method triggered by JavaFX when the user clicks on the 'export AVI preview' option in the menu bar.
+	 * Renders the project as a single AVI file with Motion JPEG frames and the sound, playable without any other tool, at a lower resolution and frame rate
+	 * @param event the JavaFX event
+	 */
+	@FXML
+	protected void exportAviPressed(ActionEvent event){
+		if(MainStage.getInstance().getPlayer() == null) return;
+		
+		FileChooser fileChooser = new FileChooser();
+		fileChooser.setTitle("Export AVI Preview");
+		fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("AVI files	(*.avi)","*.avi"));
+		File file = fileChooser.showSaveDialog(MainStage.getInstance().getPrimaryStage());
+		if(file != null) {
+			exportVideo(new MjpegAviSink(file), PREVIEW_WIDTH, PREVIEW_HEIGHT, PREVIEW_FRAME_RATE);
+		}
+	}
+	
+	/**
+	 * renders the project in another thread
+	 * @param sink the destination of the video
+	 * @param width the width, in pixels, of the video
+	 * @param height the height, in pixels, of the video
+	 * @param frameRate the number of frames per second of the video
+	 */
+	private void exportVideo(final FrameSink sink, int width, int height, int frameRate) {
+		//Copy everything the export needs while on the JavaFX Application thread
+		ArrayList<ExportShape> shapes = new ArrayList<ExportShape>();
+		for(ReactiveShape shape: MainStage.getInstance().getShapes()) {
+			shapes.add(new ExportShape(shape));
+		}
+		java.awt.Color backgroundColor = java.awt.Color.WHITE;
+		BufferedImage backgroundImage = null;
+		if(MainStage.getInstance().getVideoPane().getInnerPane().getBackground().getImages().size() == 0) {
+			Color color = (Color)(MainStage.getInstance().getVideoPane().getInnerPane().getBackground().getFills().get(0).getFill());
+			backgroundColor = new java.awt.Color((float) color.getRed(), (float) color.getGreen(), (float) color.getBlue());
+		}
+		else {
+			backgroundImage = SwingFXUtils.fromFXImage(MainStage.getInstance().getVideoPane().getInnerPane().getBackground().getImages().get(0).getImage(), null);
+		}
+		
+		final VideoExporter exporter = new VideoExporter(new FrameRenderer(shapes, backgroundColor, backgroundImage, width, height), frameRate);
+		final ReactionPlan plan = MainStage.getInstance().compileReactionPlan(); //A plan of its own: the envelopes of the live one keep running
+		final BakedReactions baked = MainStage.getInstance().getBakedReactions();
+		final byte[] soundBytes = MainStage.getInstance().getPlayer().getSoundBytes();
+		
+		//Show the progression a few times per second while the export runs
+		MainStage.getInstance().showExportProgress(0);
+		final AtomicBoolean finished = new AtomicBoolean(false); //Read on the JavaFX Application thread, where an update may arrive after the end
+		final Timer progressTimer = new Timer(true);
+		progressTimer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				final double progression = exporter.getProgression();
+				Platform.runLater(new Runnable() {
+				    @Override
+				    public void run() {
+				    	if(!finished.get()) MainStage.getInstance().showExportProgress(progression);
+				    }
+				});
+			}
+		}, EXPORT_PROGRESS_PERIOD, EXPORT_PROGRESS_PERIOD);
+		
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					exporter.export(plan, baked, soundBytes, sink);
+					finished.set(true);
+					progressTimer.cancel();
+					Platform.runLater(new Runnable() {
+					    @Override
+					    public void run() {
+					    	MainStage.getInstance().showExportDone();
+					    }
+					});
+				} catch (Exception e) { //Any failure, not only those of the sound and the files: the export thread has nobody else to tell
+					finished.set(true);
+					progressTimer.cancel();
+					Platform.runLater(new Runnable() {
+					    @Override
+					    public void run() {
+					    	MainStage.getInstance().hideExportIndicator();
+					    	MainStage.getInstance().getErrorStage().show("An error occured while trying to export the video. Sorry for the inconvenience.", "TMB483");
+					    }
+					});
+				}
+			}
+		}).start();
+	}
+	
+	/**
+	 * method triggered by JavaFX when the user clicks on the 'fast rendering' option in the menu bar.
+	 * Draws all the shapes in a single canvas, which is much faster with many shapes
+	 * @param event the JavaFX event
+	 */
+	@FXML
+	protected void canvasRenderingPressed(ActionEvent event){
+		MainStage.getInstance().getVideoPane().setCanvasMode(((CheckMenuItem) event.getSource()).isSelected());
+	}
+	
+	/**
+	 * method triggered by JavaFX when the user clicks on the 'cache shape bitmaps' option in the menu bar.
+	 * Turning it off and on while the frame timings are shown compares the update and pulse times with and without the cached bitmaps
+	 * @param event the JavaFX event
+	 */
+	@FXML
+	protected void shapeCachingPressed(ActionEvent event){
+		MainStage.getInstance().setShapeCaching(((CheckMenuItem) event.getSource()).isSelected());
+	}
+	
+	/**
+	 * method triggered by JavaFX when the user clicks on the 'show frame timings' option in the menu bar.
+	 * Shows the time taken by the updates, the interval between them, the age of the displayed sound sample and the dropped samples over the video
+	 * @param event the JavaFX event
+	 */
+	@FXML
+	protected void frameTimingsPressed(ActionEvent event){
+		boolean visible = ((CheckMenuItem) event.getSource()).isSelected();
+		if(visible) {
+			MainStage.getInstance().getFrameTimings().reset(); //Only what happens while the readout is shown
+		}
+		MainStage.getInstance().getVideoPane().setTimingReadoutVisible(visible);
+	}
+	
 	/**
 	 * method triggered by JavaFX when the user clicks on the 'tutorial' option in the menu bar
 	 * @param event the JavaFX event
@@ -1,11 +1,18 @@
 package nodes;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Label;
 import javafx.scene.image.Image;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Background;
@@ -24,10 +31,22 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.scene.shape.Shape;
+import javafx.scene.text.Font;
+import javafx.scene.transform.Scale;
+import reactions.ReactionPlan;
+import shapes.ReactiveShape;
+import shapes.ShapeIndex;
 
 /**
  * This class is the Pane in which the shapes are animated and rendered.
  * It provides a viewport for the user to see what the final result of his creation will be.
+ * The shapes can be rendered in two modes. In node mode, each shape is a JavaFX node that can be dragged around: it is the mode used to edit a project.
+ * In canvas mode, the nodes are hidden and all the shapes are drawn in a single Canvas, in one pass over the values computed by the reaction plan,
+ * which keeps the scene graph small enough to animate thousands of shapes.
+ * In both modes, the shapes ignore the mouse: a single handler on the pane finds the shape under the mouse with a ShapeIndex, tests it in software
+ * and forwards the events to it, so a click or a drag does not depend on the number of shapes.
+ * The shapes live in a fixed logical space of LOGICAL_WIDTH by LOGICAL_HEIGHT units. Only a single Scale transform maps it to the size of the pane,
+ * so resizing the window costs the same whatever the number of shapes. Resizes are applied at most once per pulse.
  */
 public class VideoPane extends StackPane implements EventHandler<MouseEvent> {
 	
@@ -39,24 +58,71 @@ public class VideoPane extends StackPane implements EventHandler<MouseEvent> {
 	 * the y component of the aspect ratio of the video pane. Used to keep the video pane at a constant width/height ratio
 	 */
 	public static final double RATIO_Y = 9;
+	/**
+	 * the width, in logical units, of the space in which the shapes are positioned
+	 */
+	public static final double LOGICAL_WIDTH = 1280;
+	/**
+	 * the height, in logical units, of the space in which the shapes are positioned
+	 */
+	public static final double LOGICAL_HEIGHT = LOGICAL_WIDTH / RATIO_X * RATIO_Y;
+	/**
+	 * the number of pulses without a change of scale after which the cached shapes are rasterized again (about a quarter of a second)
+	 */
+	private static final int CACHE_RESTORE_PULSES = 15;
 	
 	/**
 	 * the JavaFX element that keeps a constant ratio and contains all shapes
 	 */
-	@FXML private Pane innerPane; //Its initial size if 1x1, which allows the scale method to work in pixels
+	@FXML private Pane innerPane;
+	/**
+	 * the pane containing the JavaFX shapes, in logical units. It is scaled to the size of the inner pane
+	 */
+	private Pane shapeLayer = new Pane();
+	/**
+	 * the transform mapping the logical space to the pixels of the inner pane
+	 */
+	private Scale layerScale = new Scale(1, 1, 0, 0);
+	/**
+	 * whether the size of the video pane changed since the last layout
+	 */
+	private boolean resizePending = false;
+	/**
+	 * the number of pulses left before the cached shapes are rasterized again at the new scale. Equals 0 when their bitmaps match the scale
+	 */
+	private int cacheRestoreCountdown = 0;
 	/**
 	 * a rectangle that specifies the size of the clip which prevents all shapes from being displayed outside of the video pane
 	 */
 	private Rectangle clip = new Rectangle(); //Used to clip elements outside the video pane
-	
 	/**
-	 * the initial width of the video pane
+	 * the canvas in which the shapes are drawn in canvas mode
+	 */
+	private Canvas canvas = new Canvas();
+	/**
+	 * whether the shapes are drawn in the canvas instead of being rendered as nodes
 	 */
-	private double initWidth;
+	private boolean canvasMode = false;
 	/**
-	 * the initial height of the video pane
+	 * whether the canvas must be drawn again even if no new sound sample was analyzed (a shape was edited, the pane was resized...)
 	 */
-	private double initHeight;
+	private boolean canvasInvalid = false;
+	/**
+	 * a copy of the property values used the last time the canvas was drawn. Used for hit testing
+	 */
+	private double[] drawnProperties = new double[0];
+	/**
+	 * the spatial index of the shapes, in the order of the project
+	 */
+	private ShapeIndex shapeIndex = new ShapeIndex(LOGICAL_WIDTH, LOGICAL_HEIGHT);
+	/**
+	 * the shape on which the mouse was last pressed, which gets the drag and release events. Equals null if the background was pressed
+	 */
+	private ReactiveShape pressedShape;
+	/**
+	 * the text showing the frame timings over the video pane
+	 */
+	private Label timingReadout = new Label();
 	
 	/**
 	 * constructs a video pane and loads the corresponding FXML in the main stage
@@ -74,7 +140,37 @@ public class VideoPane extends StackPane implements EventHandler<MouseEvent> {
 	    setBackground(Color.WHITE);
 	    innerPane.setBorder(new Border(new BorderStroke(Color.BLACK, BorderStrokeStyle.SOLID, CornerRadii.EMPTY, BorderWidths.DEFAULT)));
 	    
-	    innerPane.setOnMouseClicked(this); //used to select the background
+	    //All the mouse events of the shapes and the background go through a single handler
+	    innerPane.setOnMousePressed(this);
+	    innerPane.setOnMouseDragged(this);
+	    innerPane.setOnMouseReleased(this);
+	    innerPane.setOnMouseClicked(this);
+	    
+	    shapeLayer.getTransforms().add(layerScale);
+	    shapeLayer.setMouseTransparent(true); //JavaFX never walks the shapes to pick them
+	    
+	    canvas.setVisible(false);
+	    canvas.setMouseTransparent(true);
+	    innerPane.getChildren().addAll(shapeLayer, canvas);
+	    
+	    timingReadout.setVisible(false);
+	    timingReadout.setMouseTransparent(true);
+	    timingReadout.setFont(Font.font("Monospaced", 11));
+	    timingReadout.setTextFill(Color.WHITE);
+	    timingReadout.setBackground(new Background(new BackgroundFill(Color.rgb(0, 0, 0, 0.6), CornerRadii.EMPTY, Insets.EMPTY)));
+	    timingReadout.setPadding(new Insets(4));
+	    StackPane.setAlignment(timingReadout, Pos.TOP_LEFT);
+	    getChildren().add(timingReadout);
+	    
+	    //The pane gets its new size during the layout pass: the shapes follow at the next pulse
+	    ChangeListener<Number> sizeListener = new ChangeListener<Number>() {
+			@Override
+			public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
+				requestResize();
+			}
+	    };
+	    widthProperty().addListener(sizeListener);
+	    heightProperty().addListener(sizeListener);
 	}
 	
 	/**
@@ -98,7 +194,10 @@ public class VideoPane extends StackPane implements EventHandler<MouseEvent> {
 	 * clears the video pane. Removes all shapes
 	 */
 	public void clear() {
-		innerPane.getChildren().clear();
+		shapeLayer.getChildren().clear();
+		shapeIndex.clear();
+		pressedShape = null;
+		canvasInvalid = true;
 	}
 	
 	/**
@@ -106,16 +205,30 @@ public class VideoPane extends StackPane implements EventHandler<MouseEvent> {
 	 * @param shape the shape to be added
 	 */
 	public void addShape(Shape shape) {
-		innerPane.getChildren().add(shape);
+		shapeLayer.getChildren().add(shape);
+		canvasInvalid = true;
 	}
 	
 	/**
-	 * set the initial size of the video pane. Used for scaling
+	 * marks the video pane to be resized at the next pulse. Several requests during the same pulse give a single layout
 	 */
-	public void setInitSize() {
-		resize(); //Initialize the inside pane to the right size
-		initWidth = innerPane.getPrefWidth();
-	    initHeight = innerPane.getPrefHeight();
+	public void requestResize() {
+		resizePending = true;
+	}
+	
+	/**
+	 * resizes the video pane if a resize was requested since the last pulse. Called by the render loop
+	 */
+	public void applyPendingResize() {
+		if(resizePending) {
+			resizePending = false;
+			resize();
+		}
+		if(cacheRestoreCountdown > 0 && --cacheRestoreCountdown == 0) { //The size settled: rasterize the bitmaps once, at the final scale
+			for(ReactiveShape shape: MainStage.getInstance().getShapes()) {
+				shape.updateCachePolicy();
+			}
+		}
 	}
 	
 	/**
@@ -136,6 +249,134 @@ public class VideoPane extends StackPane implements EventHandler<MouseEvent> {
 		clip.setWidth(innerPane.getPrefWidth());
 		clip.setHeight(innerPane.getPrefHeight());
 		innerPane.setClip(clip);
+		
+		//The only change needed by the shapes, whatever their number
+		double oldScaleX = layerScale.getX(), oldScaleY = layerScale.getY();
+		layerScale.setX(getWidthFactor());
+		layerScale.setY(getHeightFactor());
+		if(layerScale.getX() != oldScaleX || layerScale.getY() != oldScaleY) {
+			//The cached bitmaps were rasterized at the old scale and would be stretched, blurry once the window grows.
+			//They are dropped while the window is resized, and rasterized again once its size settles
+			for(ReactiveShape shape: MainStage.getInstance().getShapes()) {
+				shape.suspendCache();
+			}
+			cacheRestoreCountdown = CACHE_RESTORE_PULSES;
+		}
+		
+		canvas.setWidth(innerPane.getPrefWidth());
+		canvas.setHeight(innerPane.getPrefHeight());
+		canvasInvalid = true;
+	}
+	
+	/**
+	 * switches between node mode and canvas mode
+	 * @param canvasMode true to draw the shapes in the canvas, false to render them as nodes
+	 */
+	public void setCanvasMode(boolean canvasMode) {
+		this.canvasMode = canvasMode;
+		shapeLayer.setVisible(!canvasMode);
+		canvas.setVisible(canvasMode);
+		if(!canvasMode && MainStage.getInstance().getPlayer() != null) { //The nodes were not updated while they were hidden
+			MainStage.getInstance().updateAllShapes();
+		}
+		canvasInvalid = true;
+	}
+	
+	/**
+	 * @return whether the shapes are drawn in the canvas instead of being rendered as nodes
+	 */
+	public boolean isCanvasMode() {
+		return canvasMode;
+	}
+	
+	/**
+	 * @return whether the canvas is displayed and must be drawn again even if no new sound sample was analyzed
+	 */
+	public boolean isCanvasInvalid() {
+		return canvasMode && canvasInvalid;
+	}
+	
+	/**
+	 * marks the canvas to be drawn again at the next pulse
+	 */
+	public void invalidateCanvas() {
+		canvasInvalid = true;
+	}
+	
+	/**
+	 * draws all the shapes in the canvas, in a single pass
+	 * @param shapes the shapes to draw, from the back to the front
+	 * @param properties the property array of the reaction plan (see ReactionPlan.getProperties())
+	 */
+	public void draw(ArrayList<ReactiveShape> shapes, double[] properties) {
+		GraphicsContext gc = canvas.getGraphicsContext2D();
+		gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight()); //The background of the inner pane shows through the canvas
+		gc.save();
+		gc.scale(getWidthFactor(), getHeightFactor()); //The shapes are drawn in logical units
+		for(int i = 0; i < shapes.size(); i++) {
+			shapes.get(i).draw(gc, properties, i * ReactionPlan.PROPERTY_COUNT);
+		}
+		gc.restore();
+		
+		//Keep what was drawn: the property array is reused by the next frame
+		if(drawnProperties.length != properties.length) {
+			drawnProperties = new double[properties.length];
+		}
+		System.arraycopy(properties, 0, drawnProperties, 0, properties.length);
+		canvasInvalid = false;
+	}
+	
+	/**
+	 * finds the shape displayed at a point. Only the shapes that the index gives for this point are tested:
+	 * against their nodes in node mode, against the values they were last drawn with in canvas mode
+	 * @param x the x position, in logical units, of the point
+	 * @param y the y position, in logical units, of the point
+	 * @return the frontmost shape displayed at this point, or null if there is none
+	 */
+	public ReactiveShape pickShape(double x, double y) {
+		for(ReactiveShape shape: shapeIndex.query(x, y)) {
+			if(canvasMode) {
+				int offset = shapeIndex.getPosition(shape) * ReactionPlan.PROPERTY_COUNT;
+				if(offset + ReactionPlan.PROPERTY_COUNT <= drawnProperties.length && shape.contains(x, y, drawnProperties, offset))
+					return shape;
+			}
+			else {
+				Shape node = shape.getFXShape();
+				if(node.contains(node.parentToLocal(x, y))) //Through the transforms set by the reactions
+					return shape;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * shows or hides the frame timings over the video pane
+	 * @param visible whether the frame timings are shown
+	 */
+	public void setTimingReadoutVisible(boolean visible) {
+		timingReadout.setVisible(visible);
+	}
+	
+	/**
+	 * @return whether the frame timings are shown over the video pane
+	 */
+	public boolean isTimingReadoutVisible() {
+		return timingReadout.isVisible();
+	}
+	
+	/**
+	 * sets the text of the frame timings shown over the video pane
+	 * @param text the summary of the frame timings
+	 */
+	public void setTimingReadout(String text) {
+		timingReadout.setText(text);
+	}
+	
+	/**
+	 * @return the spatial index of the shapes, kept in the order of the project by the main stage
+	 */
+	public ShapeIndex getShapeIndex() {
+		return shapeIndex;
 	}
 	
 	/**
@@ -146,17 +387,17 @@ public class VideoPane extends StackPane implements EventHandler<MouseEvent> {
 	}
 	
 	/**
-	 * @return the scaling in x since the setInitSize was last called
+	 * @return the number of pixels per logical unit in x
 	 */
 	public double getWidthFactor() {
-		return innerPane.getPrefWidth() / initWidth;
+		return innerPane.getPrefWidth() / LOGICAL_WIDTH;
 	}
 	
 	/**
-	 * @return the scaling in y since the setInitSize was last called
+	 * @return the number of pixels per logical unit in y
 	 */
 	public double getHeightFactor() {
-		return innerPane.getPrefHeight() / initHeight;
+		return innerPane.getPrefHeight() / LOGICAL_HEIGHT;
 	}
 
 	/**
@@ -164,7 +405,8 @@ public class VideoPane extends StackPane implements EventHandler<MouseEvent> {
 	 * @param shape the shape to remove
 	 */
 	public void removeShape(Shape shape) {
-		innerPane.getChildren().remove(shape);
+		shapeLayer.getChildren().remove(shape);
+		canvasInvalid = true;
 	}
 
 	/* (non-Javadoc)
@@ -172,7 +414,14 @@ public class VideoPane extends StackPane implements EventHandler<MouseEvent> {
 	 */
 	@Override
 	public void handle(MouseEvent e) {
-		if(e.getTarget() instanceof Pane) {
+		if(e.getEventType() == MouseEvent.MOUSE_PRESSED) {
+			pressedShape = pickShape(e.getX() / getWidthFactor(), e.getY() / getHeightFactor());
+		}
+		
+		if(pressedShape != null) {
+			pressedShape.handle(e); //The shape moves itself and gets selected when released
+		}
+		else if(e.getEventType() == MouseEvent.MOUSE_CLICKED) {
 			MainStage.getInstance().selectShape(null); //Selecting null means that no shape is selected
 		}
 	}
@@ -1,32 +1,82 @@
 package reactions;
 
-import nodes.MainStage;
+import audio.AnalysisFrame;
 
 /**
  * This class represents a specific type or Reaction that can affect a Shape.
- * It gets the amplitude of the of the sound from the AudioPlayer class and modifies the Shape accordingly.
+ * It gets the amplitude of the of the sound from the analysis frame and modifies the Shape accordingly.
  */
 public class AmplitudeReaction extends Reaction {
 	
 	private static final long serialVersionUID = -1741654148553928996L;
+	
+	/**
+	 * all the possible amplitude sources: the mean of the absolute values, the root mean square and the peak of the samples
+	 */
+	public static final int SOURCE_MEAN = 0, SOURCE_RMS = 1, SOURCE_PEAK = 2;
+	
+	/**
+	 * the way the amplitude of the sound sample is measured. Projects saved before this field existed read it as SOURCE_MEAN
+	 */
+	private int source;
 
 	/**
-	 * constructs a new amplitude reaction with the given parameters
+	 * constructs a new amplitude reaction with the given parameters, reacting to the mean amplitude
 	 * @param minValue the minimum value of the shape property this reaction is affecting
 	 * @param maxValue the maximum value of the shape property this reaction is affecting
 	 * @param reactionType the reaction type (the shape property affected by this reaction)
 	 */
 	public AmplitudeReaction(double minValue, double maxValue, int reactionType) {
+		this(minValue, maxValue, reactionType, SOURCE_MEAN);
+	}
+	
+	/**
+	 * constructs a new amplitude reaction with the given parameters
+	 * @param minValue the minimum value of the shape property this reaction is affecting
+	 * @param maxValue the maximum value of the shape property this reaction is affecting
+	 * @param reactionType the reaction type (the shape property affected by this reaction)
+	 * @param source the way the amplitude is measured (SOURCE_MEAN, SOURCE_RMS or SOURCE_PEAK)
+	 */
+	public AmplitudeReaction(double minValue, double maxValue, int reactionType, int source) {
 		super(minValue, maxValue, reactionType);
+		
+		this.source = source;
 	}
 
 	/* (non-Javadoc)
-	 * @see reactions.Reaction#update()
+	 * @see reactions.Reaction#update(audio.AnalysisFrame)
 	 */
 	@Override
-	public double update() {
-		double factor = MainStage.getInstance().getPlayer().getAmplitude(); //Ranges from 0 to 1
+	public double update(AnalysisFrame frame) {
+		double factor; //Ranges from 0 to 1
+		switch(source) {
+		case SOURCE_RMS:
+			factor = isNormalized()? frame.getNormalizedRms(): frame.getRms();
+			break;
+		case SOURCE_PEAK:
+			factor = isNormalized()? frame.getNormalizedPeak(): frame.getPeak();
+			break;
+		default:
+			factor = isNormalized()? frame.getNormalizedAmplitude(): frame.getAmplitude();
+			break;
+		}
+		
 		double value = getMinValue() + factor * (getMaxValue() - getMinValue());
 		return value;
 	}
+
+	/**
+	 * @return the way the amplitude is measured (SOURCE_MEAN, SOURCE_RMS or SOURCE_PEAK)
+	 */
+	public int getSource() {
+		return source;
+	}
+
+	/**
+	 * sets the way the amplitude is measured
+	 * @param source the new amplitude source (SOURCE_MEAN, SOURCE_RMS or SOURCE_PEAK)
+	 */
+	public void setSource(int source) {
+		this.source = source;
+	}
 }
@@ -0,0 +1,256 @@
+package reactions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import audio.AudioPlayer;
+import audio.OfflineAnalysis;
+
+/**
+ * This class holds the values of all the properties of a reaction plan for every sound sample of a sound, computed ahead of time.
+ * Once a project is finished, its reactions are deterministic functions of the sound, so they can be baked: the whole sound is analyzed offline,
+ * run through the plan, and each property becomes a curve. During playback, the property values are then a simple array lookup
+ * by sample position, without any FFT or reaction evaluation.
+ * Each curve is saved quantized on 16 bits of its own range and delta encoded (zigzag variable length integers), which takes one or two bytes
+ * per sound sample for smooth curves. The curves are decoded once, the first time they are read, and can then be read from several threads
+ * (the JavaFX Application thread during playback and an export thread) as long as each thread gives its own property array.
+ */
+public class BakedReactions implements Serializable {
+
+	private static final long serialVersionUID = 7386044395315390412L;
+
+	/**
+	 * the number of steps in the range of each curve
+	 */
+	private static final int QUANTIZATION_STEPS = 65535;
+
+	/**
+	 * the number of targets of the baked plan
+	 */
+	private int targetCount;
+	/**
+	 * the number of sound samples baked
+	 */
+	private int frameCount;
+	/**
+	 * the number of sample frames in each sound sample
+	 */
+	private int hopSamples;
+	/**
+	 * for each property, the smallest value of its curve
+	 */
+	private double[] minValues;
+	/**
+	 * for each property, the difference between two quantized values
+	 */
+	private double[] steps;
+	/**
+	 * for each property, its encoded curve. Equals null for the properties that no reaction sets
+	 */
+	private byte[][] curves;
+
+	/**
+	 * the decoded curves. Equals null until the curves are decoded. Assigned once all the curves are decoded, and never modified afterward
+	 */
+	private transient volatile float[][] values;
+	/**
+	 * the property array returned by getProperties(long). Only used by the thread calling that method
+	 */
+	private transient double[] properties;
+
+	/**
+	 * use bake() to construct baked reactions
+	 */
+	private BakedReactions() {
+	}
+
+	/**
+	 * runs a whole sound through a reaction plan and bakes the results
+	 * @param plan a freshly compiled plan. Its envelopes are advanced, so it must not be used for playback at the same time
+	 * @param analysis the analysis of the sound, not started yet
+	 * @return the baked reactions
+	 * @throws IOException if the sound can't be read
+	 */
+	public static BakedReactions bake(ReactionPlan plan, OfflineAnalysis analysis) throws IOException {
+		int propertyCount = plan.getTargetCount() * ReactionPlan.PROPERTY_COUNT;
+
+		//Only the properties written by a reaction get a curve: most shapes react with one or two of their nine properties
+		boolean[] written = plan.getWrittenProperties();
+		int writtenCount = 0;
+		int[] writtenProperties = new int[propertyCount];
+		for(int p = 0; p < propertyCount; p++) {
+			if(written[p]) writtenProperties[writtenCount++] = p;
+		}
+		float[][] raw = new float[writtenCount][1024];
+
+		int frameCount = 0;
+		while(analysis.next()) {
+			plan.process(analysis.getFrame());
+			double[] properties = plan.acquireProperties();
+			if(writtenCount > 0 && frameCount == raw[0].length) { //Grow all the curves together
+				for(int c = 0; c < writtenCount; c++) {
+					raw[c] = Arrays.copyOf(raw[c], frameCount * 2);
+				}
+			}
+			for(int c = 0; c < writtenCount; c++) {
+				raw[c][frameCount] = (float) properties[writtenProperties[c]];
+			}
+			frameCount++;
+		}
+		analysis.close();
+
+		BakedReactions baked = new BakedReactions();
+		baked.targetCount = plan.getTargetCount();
+		baked.frameCount = frameCount;
+		baked.hopSamples = AudioPlayer.BUFFER_SIZE;
+		baked.minValues = new double[propertyCount];
+		baked.steps = new double[propertyCount];
+		baked.curves = new byte[propertyCount][];
+		for(int c = 0; c < writtenCount; c++) {
+			baked.encode(writtenProperties[c], raw[c]);
+			raw[c] = null; //Each raw curve can go as soon as it is encoded
+		}
+		return baked;
+	}
+
+	/**
+	 * quantizes and delta encodes the curve of a property
+	 * @param property the index of the property
+	 * @param curve the value of the property for each sound sample
+	 */
+	private void encode(int property, float[] curve) {
+		if(frameCount == 0) return;
+
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		for(int i = 0; i < frameCount; i++) {
+			min = Math.min(min, curve[i]);
+			max = Math.max(max, curve[i]);
+		}
+		double step = (max - min) / QUANTIZATION_STEPS;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(frameCount * 2);
+		int previous = 0;
+		for(int i = 0; i < frameCount; i++) {
+			int quantized = (step == 0)? 0: (int) Math.round((curve[i] - min) / step);
+			int delta = quantized - previous;
+			previous = quantized;
+
+			int zigzag = (delta << 1) ^ (delta >> 31); //Small negative deltas become small positive integers
+			while((zigzag & ~0x7F) != 0) {
+				bytes.write((zigzag & 0x7F) | 0x80);
+				zigzag >>>= 7;
+			}
+			bytes.write(zigzag);
+		}
+
+		minValues[property] = min;
+		steps[property] = step;
+		curves[property] = bytes.toByteArray();
+	}
+
+	/**
+	 * decodes all the curves the first time they are needed
+	 * @return the decoded curves
+	 */
+	private float[][] getValues() {
+		float[][] decodedValues = values;
+		if(decodedValues == null) {
+			synchronized(this) { //Decoded by a single thread, even if two threads read the curves for the first time together
+				decodedValues = values;
+				if(decodedValues == null) {
+					decodedValues = decode();
+					values = decodedValues; //Published only once complete
+				}
+			}
+		}
+		return decodedValues;
+	}
+
+	/**
+	 * decodes all the curves
+	 * @return the decoded curve of each property, or null for the properties that no reaction sets
+	 */
+	private float[][] decode() {
+		float[][] decodedCurves = new float[curves.length][];
+		for(int p = 0; p < curves.length; p++) {
+			byte[] curve = curves[p];
+			if(curve == null) continue;
+
+			float[] decoded = new float[frameCount];
+			int position = 0, quantized = 0;
+			for(int i = 0; i < frameCount; i++) {
+				int zigzag = 0, shift = 0, b;
+				do {
+					b = curve[position++];
+					zigzag |= (b & 0x7F) << shift;
+					shift += 7;
+				} while((b & 0x80) != 0);
+				quantized += (zigzag >>> 1) ^ -(zigzag & 1);
+				decoded[i] = (float) (minValues[p] + quantized * steps[p]);
+			}
+			decodedCurves[p] = decoded;
+		}
+		return decodedCurves;
+	}
+
+	/**
+	 * returns the value of every property at a position in the sound, in an array reused by every call. Must always be called from the same thread:
+	 * the other threads use getProperties(long, double[])
+	 * @param samplePosition the position, in sample frames, of the end of the sound sample being played
+	 * @return the value of each property of each target, laid out like ReactionPlan.getProperties(). NaN means that no reaction sets the property
+	 */
+	public double[] getProperties(long samplePosition) {
+		if(properties == null) properties = new double[curves.length];
+		return getProperties(samplePosition, properties);
+	}
+
+	/**
+	 * writes the value of every property at a position in the sound in an array owned by the caller. Can be called from any thread
+	 * @param samplePosition the position, in sample frames, of the end of the sound sample being played
+	 * @param out the array receiving the values, with one value per property of each target
+	 * @return out, filled like ReactionPlan.getProperties(). NaN means that no reaction sets the property
+	 */
+	public double[] getProperties(long samplePosition, double[] out) {
+		float[][] values = getValues();
+
+		int index = (int) Math.max(0, Math.min(frameCount - 1, (samplePosition + hopSamples - 1) / hopSamples - 1)); //The sound sample ending at or after the position
+		for(int p = 0; p < out.length; p++) {
+			out[p] = (values[p] == null || frameCount == 0)? Double.NaN: values[p][index];
+		}
+		return out;
+	}
+
+	/**
+	 * @return the number of properties of the baked plan, PROPERTY_COUNT per target: the length of the property arrays
+	 */
+	public int getPropertyCount() {
+		return curves.length;
+	}
+
+	/**
+	 * @return the number of targets of the baked plan
+	 */
+	public int getTargetCount() {
+		return targetCount;
+	}
+
+	/**
+	 * @return the number of sound samples baked
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return the size, in bytes, of the encoded curves
+	 */
+	public int getEncodedSize() {
+		int size = 0;
+		for(byte[] curve: curves) {
+			if(curve != null) size += curve.length;
+		}
+		return size;
+	}
+}
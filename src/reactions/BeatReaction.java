@@ -0,0 +1,56 @@
+package reactions;
+
+import audio.AnalysisFrame;
+
+/**
+ * This class represents a specific type or Reaction that can affect a Shape.
+ * It reacts to the onsets (beats) detected in the sound: the shape property jumps to the maximum value on each beat and decays back to the minimum value.
+ */
+public class BeatReaction extends Reaction {
+
+	private static final long serialVersionUID = 4905719320553104482L;
+
+	/**
+	 * the time, in milliseconds, that the pulse takes to decay most of the way (63%) back to the minimum value
+	 */
+	private double decay;
+
+	/**
+	 * constructs a beat reaction with the given parameters
+	 * @param decay the time, in milliseconds, that the pulse takes to decay most of the way back to the minimum value
+	 * @param minValue the minimum value of the shape property this reaction is affecting
+	 * @param maxValue the maximum value of the shape property this reaction is affecting (reached on each beat)
+	 * @param reactionType the reaction type (the shape property affected by this reaction)
+	 */
+	public BeatReaction(double decay, double minValue, double maxValue, int reactionType) {
+		super(minValue, maxValue, reactionType);
+
+		setDecay(decay);
+	}
+
+	/* (non-Javadoc)
+	 * @see reactions.Reaction#update(audio.AnalysisFrame)
+	 */
+	@Override
+	public double update(AnalysisFrame frame) {
+		double factor = Math.exp(-frame.getTimeSinceOnset() * 1000 / decay); //Ranges from 0 to 1, 1 being right on the beat
+
+		double value = getMinValue() + factor * (getMaxValue() - getMinValue());
+		return value;
+	}
+
+	/**
+	 * @return the decay time of the pulse, in milliseconds
+	 */
+	public double getDecay() {
+		return decay;
+	}
+
+	/**
+	 * sets the decay time of the pulse
+	 * @param decay the new decay time, in milliseconds
+	 */
+	public void setDecay(double decay) {
+		this.decay = Math.max(1, decay);
+	}
+}
@@ -0,0 +1,547 @@
+package reactions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class compiles the source of an expression reaction, such as "0.5 * bass + 0.3 * rms^2" or "max(kick, snare)", into Java bytecode.
+ * The source is parsed once by a recursive descent parser that writes the bytecode of the evaluate method as it goes,
+ * and the resulting class is loaded as a hidden class (MethodHandles.Lookup.defineHiddenClass, Java 15 or later).
+ * The JIT then compiles the expression like any hand-written update method: there is no tree to walk for each frame.
+ * The generated code has no branches, so the class does not need stack map frames.
+ *
+ * The grammar is:
+ * expression = term (('+' | '-') term)*
+ * term = unary (('*' | '/') unary)*
+ * unary = '-' unary | power
+ * power = primary ('^' unary)?
+ * primary = number | feature | constant | function '(' expression (',' expression)* ')' | '(' expression ')'
+ */
+public class ExpressionCompiler {
+
+	/**
+	 * the opcodes used by the generated code
+	 */
+	private static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, BIPUSH = 0x10, DCONST_0 = 0x0e, DCONST_1 = 0x0f, LDC2_W = 0x14,
+			DALOAD = 0x31, DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77,
+			INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, RETURN = 0xb1, DRETURN = 0xaf;
+	/**
+	 * the constant pool tags used by the generated class
+	 */
+	private static final int TAG_UTF8 = 1, TAG_DOUBLE = 6, TAG_CLASS = 7, TAG_METHODREF = 10, TAG_NAME_AND_TYPE = 12;
+	/**
+	 * the name of the generated class. The JVM adds a suffix to make each hidden class unique
+	 */
+	private static final String CLASS_NAME = "reactions/CompiledExpression";
+	/**
+	 * the deepest nesting of parentheses, function calls, signs and powers accepted. The parser is recursive: without a limit,
+	 * a pathological expression would overflow the stack of the JavaFX Application thread instead of showing an error
+	 */
+	private static final int MAX_DEPTH = 256;
+	/**
+	 * the functions that can be called from an expression, with their number of arguments. -1 means two or more
+	 */
+	private static final HashMap<String, Integer> FUNCTIONS = new HashMap<String, Integer>();
+	static {
+		FUNCTIONS.put("min", -1);
+		FUNCTIONS.put("max", -1);
+		FUNCTIONS.put("pow", 2);
+		FUNCTIONS.put("clamp", 3);
+		for(String name: new String[] {"abs", "sqrt", "sin", "cos", "tan", "exp", "log", "floor", "ceil"}) {
+			FUNCTIONS.put(name, 1);
+		}
+	}
+
+	/**
+	 * the source of the expression
+	 */
+	private String source;
+	/**
+	 * the position of the parser in the source
+	 */
+	private int position = 0;
+	/**
+	 * the current nesting depth of the parser
+	 */
+	private int depth = 0;
+	/**
+	 * the features read by the expression, as a bit mask (bit i for the feature i of ExpressionFeatures)
+	 */
+	private int usedFeatures = 0;
+
+	/**
+	 * the bytecode of the evaluate method
+	 */
+	private ByteArrayOutputStream code = new ByteArrayOutputStream();
+	/**
+	 * the number of stack slots used at the current point of the bytecode, and the maximum reached
+	 */
+	private int stack = 0, maxStack = 0;
+	/**
+	 * the entries of the constant pool, each one already encoded
+	 */
+	private ArrayList<byte[]> constants = new ArrayList<byte[]>();
+	/**
+	 * the index of each entry of the constant pool, by content. Makes sure each entry is only added once
+	 */
+	private HashMap<String, Integer> constantIndexes = new HashMap<String, Integer>();
+	/**
+	 * the index that the next entry of the constant pool will get (double entries take two indexes)
+	 */
+	private int nextConstant = 1;
+
+	/**
+	 * constructs a compiler for an expression
+	 * @param source the source of the expression
+	 */
+	public ExpressionCompiler(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * parses the expression, generates its class and loads it
+	 * @return a new instance of the generated class
+	 * @throws ExpressionException if the expression is not valid
+	 */
+	public ExpressionFunction compile() throws ExpressionException {
+		parseExpression();
+		skipSpaces();
+		if(position < source.length())
+			throw new ExpressionException("Unexpected '" + source.charAt(position) + "' at position " + (position + 1) + ".");
+		emit(DRETURN, -2);
+
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writeClass(), true);
+			return (ExpressionFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+		} catch (Throwable e) {
+			throw new ExpressionException("The expression could not be compiled: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the features read by the expression, as a bit mask (bit i for the feature i of ExpressionFeatures). Valid after compile()
+	 */
+	public int getUsedFeatures() {
+		return usedFeatures;
+	}
+
+	/**
+	 * parses: term (('+' | '-') term)*
+	 * @throws ExpressionException if the expression is not valid
+	 */
+	private void parseExpression() throws ExpressionException {
+		parseTerm();
+		while(true) {
+			if(accept('+')) {
+				parseTerm();
+				emit(DADD, -2);
+			}
+			else if(accept('-')) {
+				parseTerm();
+				emit(DSUB, -2);
+			}
+			else return;
+		}
+	}
+
+	/**
+	 * parses: unary (('*' | '/') unary)*
+	 * @throws ExpressionException if the expression is not valid
+	 */
+	private void parseTerm() throws ExpressionException {
+		parseUnary();
+		while(true) {
+			if(accept('*')) {
+				parseUnary();
+				emit(DMUL, -2);
+			}
+			else if(accept('/')) {
+				parseUnary();
+				emit(DDIV, -2);
+			}
+			else return;
+		}
+	}
+
+	/**
+	 * parses: '-' unary | power. Every nested construct (parentheses, arguments, signs, exponents) goes through here, so the depth is checked here
+	 * @throws ExpressionException if the expression is not valid or is nested too deeply
+	 */
+	private void parseUnary() throws ExpressionException {
+		if(++depth > MAX_DEPTH)
+			throw new ExpressionException("The expression is nested too deeply at position " + (position + 1) + " (at most " + MAX_DEPTH + " levels).");
+		try {
+			if(accept('-')) {
+				parseUnary();
+				emit(DNEG, 0);
+			}
+			else {
+				parsePower();
+			}
+		} finally {
+			depth--;
+		}
+	}
+
+	/**
+	 * parses: primary ('^' unary)?
+	 * @throws ExpressionException if the expression is not valid
+	 */
+	private void parsePower() throws ExpressionException {
+		parsePrimary();
+		if(accept('^')) {
+			parseUnary(); //Right associative: 2^3^2 is 2^(3^2)
+			emitMath("pow", 2);
+		}
+	}
+
+	/**
+	 * parses: number | feature | constant | function '(' expression (',' expression)* ')' | '(' expression ')'
+	 * @throws ExpressionException if the expression is not valid
+	 */
+	private void parsePrimary() throws ExpressionException {
+		skipSpaces();
+		if(position == source.length())
+			throw new ExpressionException("The expression ends too early.");
+
+		char c = source.charAt(position);
+		if(accept('(')) {
+			parseExpression();
+			expect(')');
+		}
+		else if(Character.isDigit(c) || c == '.') {
+			int start = position;
+			while(position < source.length() && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) position++;
+			try {
+				emitConstant(Double.parseDouble(source.substring(start, position)));
+			} catch(NumberFormatException e) {
+				throw new ExpressionException("'" + source.substring(start, position) + "' is not a valid number.");
+			}
+		}
+		else if(Character.isLetter(c)) {
+			int start = position;
+			while(position < source.length() && Character.isLetterOrDigit(source.charAt(position))) position++;
+			String name = source.substring(start, position).toLowerCase();
+
+			if(FUNCTIONS.containsKey(name)) {
+				parseCall(name);
+			}
+			else if(name.equals("pi")) {
+				emitConstant(Math.PI);
+			}
+			else if(name.equals("e")) {
+				emitConstant(Math.E);
+			}
+			else {
+				int feature = ExpressionFeatures.getIndex(name);
+				if(feature == -1)
+					throw new ExpressionException("Unknown name '" + name + "'. Available features: " + ExpressionFeatures.getNames() + ".");
+				usedFeatures |= 1 << feature;
+				emit(ALOAD_1, 1);
+				emit(BIPUSH, 1);
+				code.write(feature);
+				emit(DALOAD, 0); //Pops the array and the index (2 slots), pushes a double (2 slots)
+			}
+		}
+		else {
+			throw new ExpressionException("Unexpected '" + c + "' at position " + (position + 1) + ".");
+		}
+	}
+
+	/**
+	 * parses the arguments of a function call and emits the call
+	 * @param name the name of the function, already parsed
+	 * @throws ExpressionException if the call is not valid
+	 */
+	private void parseCall(String name) throws ExpressionException {
+		int arity = FUNCTIONS.get(name);
+		expect('(');
+
+		if(name.equals("clamp")) { //clamp(x, low, high) = max(low, min(x, high)), but low must be pushed first
+			int xStart = position;
+			skipArgument();
+			expect(',');
+			parseExpression();
+			int afterLow = position;
+			position = xStart;
+			parseExpression();
+			position = afterLow;
+			expect(',');
+			parseExpression();
+			emitMath("min", 2);
+			emitMath("max", 2);
+			expect(')');
+			return;
+		}
+
+		int count = 1;
+		parseExpression();
+		while(accept(',')) {
+			parseExpression();
+			count++;
+			if(arity == -1) emitMath(name, 2); //min and max take any number of arguments, two at a time
+		}
+		expect(')');
+
+		if(arity == -1 && count < 2)
+			throw new ExpressionException("The function '" + name + "' needs at least 2 arguments.");
+		if(arity != -1 && count != arity)
+			throw new ExpressionException("The function '" + name + "' needs " + arity + (arity == 1? " argument.": " arguments."));
+		if(arity != -1) emitMath(name, arity);
+	}
+
+	/**
+	 * moves the parser after an argument without compiling it, by counting the parentheses
+	 * @throws ExpressionException if the argument is not closed
+	 */
+	private void skipArgument() throws ExpressionException {
+		int depth = 0;
+		while(position < source.length()) {
+			char c = source.charAt(position);
+			if(depth == 0 && (c == ',' || c == ')')) return;
+			if(c == '(') depth++;
+			if(c == ')') depth--;
+			position++;
+		}
+		throw new ExpressionException("A parenthesis is missing.");
+	}
+
+	/**
+	 * skips the spaces, then moves the parser after the next character if it is the given one
+	 * @param c the character
+	 * @return whether the character was there
+	 */
+	private boolean accept(char c) {
+		skipSpaces();
+		if(position < source.length() && source.charAt(position) == c) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * same as accept, but the character is mandatory
+	 * @param c the character
+	 * @throws ExpressionException if the character is not there
+	 */
+	private void expect(char c) throws ExpressionException {
+		if(!accept(c)) {
+			if(position == source.length())
+				throw new ExpressionException("'" + c + "' is missing at the end of the expression.");
+			throw new ExpressionException("'" + c + "' expected at position " + (position + 1) + ".");
+		}
+	}
+
+	/**
+	 * moves the parser after the spaces
+	 */
+	private void skipSpaces() {
+		while(position < source.length() && Character.isWhitespace(source.charAt(position))) position++;
+	}
+
+	/**
+	 * writes an opcode in the bytecode of the evaluate method
+	 * @param opcode the opcode
+	 * @param stackChange the number of stack slots added (or removed if negative) by the instruction
+	 */
+	private void emit(int opcode, int stackChange) {
+		code.write(opcode);
+		stack += stackChange;
+		maxStack = Math.max(maxStack, stack);
+	}
+
+	/**
+	 * writes the instructions pushing a constant
+	 * @param value the constant
+	 */
+	private void emitConstant(double value) {
+		if(value == 0 && 1 / value > 0) {
+			emit(DCONST_0, 2);
+		}
+		else if(value == 1) {
+			emit(DCONST_1, 2);
+		}
+		else {
+			emit(LDC2_W, 2);
+			writeShort(code, addDouble(value));
+		}
+	}
+
+	/**
+	 * writes a call to a static method of java.lang.Math taking and returning doubles
+	 * @param name the name of the method
+	 * @param arity the number of arguments
+	 */
+	private void emitMath(String name, int arity) {
+		StringBuilder descriptor = new StringBuilder("(");
+		for(int i = 0; i < arity; i++) descriptor.append('D');
+		descriptor.append(")D");
+
+		emit(INVOKESTATIC, 2 - 2 * arity);
+		writeShort(code, addMethod("java/lang/Math", name, descriptor.toString()));
+	}
+
+	/**
+	 * writes the whole class file
+	 * @return the bytes of the class file
+	 * @throws IOException never, the class is written in memory
+	 */
+	private byte[] writeClass() throws IOException {
+		int thisClass = addClass(CLASS_NAME);
+		int objectClass = addClass("java/lang/Object");
+		int functionInterface = addClass("reactions/ExpressionFunction");
+		int objectConstructor = addMethod("java/lang/Object", "<init>", "()V");
+		int constructorName = addUtf8("<init>");
+		int constructorDescriptor = addUtf8("()V");
+		int evaluateName = addUtf8("evaluate");
+		int evaluateDescriptor = addUtf8("([D)D");
+		int codeName = addUtf8("Code");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0); //minor version
+		out.writeShort(52); //major version (Java 8): no stack map frames needed since the code has no branches
+		out.writeShort(nextConstant);
+		for(byte[] constant: constants) {
+			out.write(constant);
+		}
+		out.writeShort(0x0031); //public final super
+		out.writeShort(thisClass);
+		out.writeShort(objectClass);
+		out.writeShort(1); //interfaces
+		out.writeShort(functionInterface);
+		out.writeShort(0); //fields
+		out.writeShort(2); //methods
+
+		//public constructor calling Object's
+		ByteArrayOutputStream constructorCode = new ByteArrayOutputStream();
+		constructorCode.write(ALOAD_0);
+		constructorCode.write(INVOKESPECIAL);
+		writeShort(constructorCode, objectConstructor);
+		constructorCode.write(RETURN);
+		writeMethod(out, constructorName, constructorDescriptor, codeName, 1, 1, constructorCode.toByteArray());
+
+		//public double evaluate(double[] features)
+		writeMethod(out, evaluateName, evaluateDescriptor, codeName, maxStack, 2, code.toByteArray());
+
+		out.writeShort(0); //class attributes
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * writes a public method with its Code attribute
+	 * @param out the class file
+	 * @param name the constant pool index of the method name
+	 * @param descriptor the constant pool index of the method descriptor
+	 * @param codeName the constant pool index of "Code"
+	 * @param maxStack the maximum number of stack slots used by the code
+	 * @param maxLocals the number of local variable slots, including 'this'
+	 * @param bytecode the bytecode of the method
+	 * @throws IOException never, the class is written in memory
+	 */
+	private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName, int maxStack, int maxLocals, byte[] bytecode) throws IOException {
+		out.writeShort(0x0001); //public
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1); //attributes
+		out.writeShort(codeName);
+		out.writeInt(12 + bytecode.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(bytecode.length);
+		out.write(bytecode);
+		out.writeShort(0); //exception table
+		out.writeShort(0); //code attributes
+	}
+
+	/**
+	 * adds an entry to the constant pool if it is not there yet
+	 * @param key a string identifying the content of the entry
+	 * @param entry the encoded entry
+	 * @param size the number of indexes taken by the entry (2 for doubles)
+	 * @return the index of the entry
+	 */
+	private int addConstant(String key, byte[] entry, int size) {
+		Integer index = constantIndexes.get(key);
+		if(index == null) {
+			index = nextConstant;
+			nextConstant += size;
+			constants.add(entry);
+			constantIndexes.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * @param value a string
+	 * @return the index of the UTF8 entry of the string
+	 */
+	private int addUtf8(String value) {
+		ByteArrayOutputStream entry = new ByteArrayOutputStream();
+		try {
+			DataOutputStream out = new DataOutputStream(entry);
+			out.writeByte(TAG_UTF8);
+			out.writeUTF(value);
+		} catch (IOException e) {
+			throw new RuntimeException(e); //Never happens in memory
+		}
+		return addConstant("U" + value, entry.toByteArray(), 1);
+	}
+
+	/**
+	 * @param value a double
+	 * @return the index of the double entry
+	 */
+	private int addDouble(double value) {
+		long bits = Double.doubleToLongBits(value);
+		byte[] entry = new byte[9];
+		entry[0] = TAG_DOUBLE;
+		for(int i = 0; i < 8; i++) {
+			entry[1 + i] = (byte) (bits >>> (56 - 8 * i));
+		}
+		return addConstant("D" + bits, entry, 2);
+	}
+
+	/**
+	 * @param name the internal name of a class
+	 * @return the index of the class entry
+	 */
+	private int addClass(String name) {
+		int nameIndex = addUtf8(name);
+		return addConstant("C" + name, new byte[] {TAG_CLASS, (byte) (nameIndex >> 8), (byte) nameIndex}, 1);
+	}
+
+	/**
+	 * @param owner the internal name of the class declaring the method
+	 * @param name the name of the method
+	 * @param descriptor the descriptor of the method
+	 * @return the index of the method reference entry
+	 */
+	private int addMethod(String owner, String name, String descriptor) {
+		int classIndex = addClass(owner);
+		int nameIndex = addUtf8(name);
+		int descriptorIndex = addUtf8(descriptor);
+		int nameAndType = addConstant("N" + name + descriptor, new byte[] {TAG_NAME_AND_TYPE,
+				(byte) (nameIndex >> 8), (byte) nameIndex, (byte) (descriptorIndex >> 8), (byte) descriptorIndex}, 1);
+		return addConstant("M" + owner + "." + name + descriptor, new byte[] {TAG_METHODREF,
+				(byte) (classIndex >> 8), (byte) classIndex, (byte) (nameAndType >> 8), (byte) nameAndType}, 1);
+	}
+
+	/**
+	 * writes a big endian short
+	 * @param out the stream
+	 * @param value the short
+	 */
+	private static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write(value >> 8);
+		out.write(value);
+	}
+}
@@ -0,0 +1,18 @@
+package reactions;
+
+/**
+ * This exception is thrown when the source of an expression reaction can't be compiled.
+ * Its message tells the user what is wrong with the expression.
+ */
+public class ExpressionException extends Exception {
+
+	private static final long serialVersionUID = -6123480179261548812L;
+
+	/**
+	 * constructs an expression exception
+	 * @param message the description of the problem, shown to the user
+	 */
+	public ExpressionException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,89 @@
+package reactions;
+
+import audio.AnalysisFrame;
+import audio.LevelNormalizer;
+
+/**
+ * This class lists the components of the sound that an expression can read, and copies them from an analysis frame into an array of slots.
+ * Only the slots read by at least one expression are filled, so an unused feature costs nothing.
+ * The levels are normalized against the recent range of the sound and range from 0 to 1.
+ */
+public class ExpressionFeatures {
+
+	/**
+	 * the index of each feature in the slot array
+	 */
+	public static final int AMP = 0, RMS = 1, PEAK = 2, BASS = 3, MID = 4, TREBLE = 5, KICK = 6, SNARE = 7, HAT = 8, BEAT = 9, ONSET = 10, FLUX = 11, TIME = 12;
+	/**
+	 * the number of features, which is also the length of the slot array
+	 */
+	public static final int COUNT = 13;
+	/**
+	 * the name of each feature in the expressions, indexed like the slots
+	 */
+	private static final String[] NAMES = {"amp", "rms", "peak", "bass", "mid", "treble", "kick", "snare", "hat", "beat", "onset", "flux", "time"};
+
+	/**
+	 * the frequency range, in Hertz, of each feature reading the spectrum (from BASS to HAT)
+	 */
+	private static final float[] LOW_FREQS = {20, 250, 4000, 40, 150, 8000}, HI_FREQS = {250, 4000, 16000, 100, 250, 16000};
+	/**
+	 * the first and last bands of the LevelNormalizer covering each frequency range
+	 */
+	private static final int[] LOW_BANDS = new int[LOW_FREQS.length], HI_BANDS = new int[HI_FREQS.length];
+	static {
+		for(int i = 0; i < LOW_FREQS.length; i++) {
+			LOW_BANDS[i] = LevelNormalizer.getBandIndex(LOW_FREQS[i]);
+			HI_BANDS[i] = LevelNormalizer.getBandIndex(HI_FREQS[i]);
+		}
+	}
+	/**
+	 * the time, in seconds, that the 'beat' pulse takes to decay most of the way (63%) back to 0
+	 */
+	private static final double BEAT_DECAY = 0.15;
+
+	/**
+	 * this class only has static members
+	 */
+	private ExpressionFeatures() {
+	}
+
+	/**
+	 * @param name the name of a feature in an expression
+	 * @return the index of the feature's slot, or -1 if there is no feature with this name
+	 */
+	public static int getIndex(String name) {
+		for(int i = 0; i < NAMES.length; i++) {
+			if(NAMES[i].equals(name)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the names of all the features, separated by commas
+	 */
+	public static String getNames() {
+		return String.join(", ", NAMES);
+	}
+
+	/**
+	 * copies the features of a frame in the slots
+	 * @param frame the analysis frame of the sound sample
+	 * @param features the slot array, COUNT values long
+	 * @param used the features to copy, as a bit mask (bit i for the feature i)
+	 */
+	public static void fill(AnalysisFrame frame, double[] features, int used) {
+		if((used & (1 << AMP)) != 0) features[AMP] = frame.getNormalizedAmplitude();
+		if((used & (1 << RMS)) != 0) features[RMS] = frame.getNormalizedRms();
+		if((used & (1 << PEAK)) != 0) features[PEAK] = frame.getNormalizedPeak();
+		for(int feature = BASS, i = 0; feature <= HAT; feature++, i++) {
+			if((used & (1 << feature)) != 0) {
+				features[feature] = frame.normalizeBands(LOW_BANDS[i], HI_BANDS[i], frame.calcAvg(LOW_FREQS[i], HI_FREQS[i]));
+			}
+		}
+		if((used & (1 << BEAT)) != 0) features[BEAT] = Math.exp(-frame.getTimeSinceOnset() / BEAT_DECAY);
+		if((used & (1 << ONSET)) != 0) features[ONSET] = frame.isOnset()? 1: 0;
+		if((used & (1 << FLUX)) != 0) features[FLUX] = frame.getFlux();
+		if((used & (1 << TIME)) != 0) features[TIME] = frame.getTime();
+	}
+}
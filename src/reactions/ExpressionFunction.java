@@ -0,0 +1,15 @@
+package reactions;
+
+/**
+ * This interface is implemented by the classes generated by the ExpressionCompiler.
+ * Each generated class evaluates one expression, reading the components of the sound from an array of feature slots.
+ */
+public interface ExpressionFunction {
+
+	/**
+	 * evaluates the expression
+	 * @param features the value of each feature, indexed by the constants of ExpressionFeatures
+	 * @return the value of the expression
+	 */
+	public double evaluate(double[] features);
+}
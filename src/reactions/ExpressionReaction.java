@@ -0,0 +1,120 @@
+package reactions;
+
+import audio.AnalysisFrame;
+
+/**
+ * This class represents a specific type or Reaction that can affect a Shape.
+ * It evaluates an expression written by the user, such as "0.5 * bass + 0.3 * rms^2" or "max(kick, snare)", over the features of the sound
+ * (see ExpressionFeatures). The expression is compiled to bytecode by the ExpressionCompiler the first time it is used.
+ * Only the source of the expression is saved with the project.
+ */
+public class ExpressionReaction extends Reaction {
+
+	private static final long serialVersionUID = -2219163734470930587L;
+
+	/**
+	 * the source of the expression. Its value is clamped between 0 and 1, 1 giving the maximum value of the shape property
+	 */
+	private String expression;
+	/**
+	 * the compiled expression. Equals null until the expression is compiled
+	 */
+	private transient ExpressionFunction function;
+	/**
+	 * the features read by the expression, as a bit mask (bit i for the feature i of ExpressionFeatures)
+	 */
+	private transient int usedFeatures;
+	/**
+	 * the feature slots filled by update()
+	 */
+	private transient double[] features;
+
+	/**
+	 * constructs an expression reaction and compiles its expression
+	 * @param expression the source of the expression
+	 * @param minValue the minimum value of the shape property this reaction is affecting
+	 * @param maxValue the maximum value of the shape property this reaction is affecting
+	 * @param reactionType the reaction type (the shape property affected by this reaction)
+	 * @throws ExpressionException if the expression is not valid
+	 */
+	public ExpressionReaction(String expression, double minValue, double maxValue, int reactionType) throws ExpressionException {
+		super(minValue, maxValue, reactionType);
+
+		setExpression(expression);
+	}
+
+	/* (non-Javadoc)
+	 * @see reactions.Reaction#update(audio.AnalysisFrame)
+	 */
+	@Override
+	public double update(AnalysisFrame frame) {
+		ExpressionFunction function = getFunction();
+		if(features == null) features = new double[ExpressionFeatures.COUNT];
+		ExpressionFeatures.fill(frame, features, usedFeatures);
+		double factor = toFactor(function.evaluate(features));
+
+		double value = getMinValue() + factor * (getMaxValue() - getMinValue());
+		return value;
+	}
+
+	/**
+	 * @param result the value of an expression
+	 * @return the value clamped between 0 and 1. NaN (such as the square root of a negative number) gives 0
+	 */
+	public static double toFactor(double result) {
+		if(!(result > 0)) return 0;
+		return Math.min(1, result);
+	}
+
+	/**
+	 * returns the compiled expression, compiling it if needed (after the reaction was loaded from a file)
+	 * @return the compiled expression. An expression that does not compile anymore always gives 0
+	 */
+	public ExpressionFunction getFunction() {
+		if(function == null) {
+			try {
+				compile(expression);
+			} catch (ExpressionException e) {
+				e.printStackTrace();
+				function = (slots) -> 0;
+				usedFeatures = 0;
+			}
+		}
+		return function;
+	}
+
+	/**
+	 * @return the features read by the expression, as a bit mask (bit i for the feature i of ExpressionFeatures)
+	 */
+	public int getUsedFeatures() {
+		getFunction();
+		return usedFeatures;
+	}
+
+	/**
+	 * @param expression the source of the expression to compile
+	 * @throws ExpressionException if the expression is not valid
+	 */
+	private void compile(String expression) throws ExpressionException {
+		ExpressionCompiler compiler = new ExpressionCompiler(expression);
+		function = compiler.compile();
+		usedFeatures = compiler.getUsedFeatures();
+	}
+
+	/**
+	 * @return the source of the expression
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * compiles and sets a new expression. The reaction keeps its current expression if the new one is not valid
+	 * @param expression the source of the new expression
+	 * @throws ExpressionException if the expression is not valid
+	 */
+	public void setExpression(String expression) throws ExpressionException {
+		compile(expression);
+		this.expression = expression;
+	}
+}
@@ -1,16 +1,20 @@
 package reactions;
 
-import ddf.minim.analysis.FFT;
-import nodes.MainStage;
+import audio.AnalysisFrame;
 
 /**
  * This class represents a specific type or Reaction that can affect a Shape.
- * It gets the amplitude of the frequencies of the sound from the FFT class and modifies the Shape accordingly.
+ * It gets the amplitude of the frequencies of the sound from the analysis frame and modifies the Shape accordingly.
  */
 public class FrequencyReaction extends Reaction {
 	
 	private static final long serialVersionUID = -3596912037300167264L;
 	
+	/**
+	 * the average amplitude of the frequency range at which the shape property reaches its maximum value
+	 */
+	public static final float MAX_AMPLITUDE = 70;
+	
 	/**
 	 * the lower bound of the frequency range affecting the shape property
 	 */
@@ -36,12 +40,15 @@ public class FrequencyReaction extends Reaction {
 	}
 
 	/* (non-Javadoc)
-	 * @see reactions.Reaction#update()
+	 * @see reactions.Reaction#update(audio.AnalysisFrame)
 	 */
 	@Override
-	public double update() {
-		FFT fft = MainStage.getInstance().getPlayer().getFft();
-		double factor = Math.min(70, fft.calcAvg(minFreq, maxFreq)) / 70; //Math.min to make sure that the factor does not go below 1 (which would shrink the shape in a Size reaction)
+	public double update(AnalysisFrame frame) {
+		double factor;
+		if(isNormalized())
+			factor = frame.calcNormalizedAvg(minFreq, maxFreq);
+		else
+			factor = Math.min(MAX_AMPLITUDE, frame.calcAvg(minFreq, maxFreq)) / MAX_AMPLITUDE; //Math.min to make sure that the factor does not go below 1 (which would shrink the shape in a Size reaction)
 		
 		double value = getMinValue() + factor * (getMaxValue() - getMinValue());
 		return value;
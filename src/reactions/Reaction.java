@@ -2,6 +2,8 @@ package reactions;
 
 import java.io.Serializable;
 
+import audio.AnalysisFrame;
+
 /**
  * Abstract class that updates a shape property in function of a specific component of the sound
  */
@@ -10,9 +12,9 @@ public abstract class Reaction implements Serializable {
 	private static final long serialVersionUID = 420176639566388751L;
 
 	/**
-	 * all the possible reaction types
+	 * all the possible reaction types. The translations are in pixels, the rotation in degrees and the opacity ranges from 0 to 1
 	 */
-	public static final int SIZE = 0, WIDTH = 1, HEIGHT = 2, COLOR_RED = 3, COLOR_GREEN = 4, COLOR_BLUE = 5;
+	public static final int SIZE = 0, WIDTH = 1, HEIGHT = 2, COLOR_RED = 3, COLOR_GREEN = 4, COLOR_BLUE = 5, TRANSLATE_X = 6, TRANSLATE_Y = 7, ROTATE = 8, OPACITY = 9;
 	
 	/**
 	 * the minimum value of the shape property this reaction is affecting
@@ -26,6 +28,19 @@ public abstract class Reaction implements Serializable {
 	 * the reaction type (the shape property affected by this reaction)
 	 */
 	private int reactionType;
+	/**
+	 * the time, in milliseconds, that the value takes to move most of the way (63%) toward the maximum value. 0 means no smoothing
+	 */
+	private double attack;
+	/**
+	 * the time, in milliseconds, that the value takes to move most of the way (63%) back toward the minimum value. 0 means no smoothing
+	 */
+	private double release;
+	/**
+	 * whether the component of the sound is compared to its range over the last few seconds instead of a fixed maximum.
+	 * Only used by the reactions reading the level of the sound. Projects saved before this field existed read it as false
+	 */
+	private boolean normalized;
 	
 	/**
 	 * constructs a new reaction with the specified parameters
@@ -46,9 +61,10 @@ public abstract class Reaction implements Serializable {
 	
 	/**
 	 * updates the value of the shape property based on the reaction
+	 * @param frame the analysis frame of the sound sample to react to
 	 * @return the updated value
 	 */
-	public abstract double update();
+	public abstract double update(AnalysisFrame frame);
 
 	/**
 	 * @return the minimum value of the shape property
@@ -102,5 +118,57 @@ public abstract class Reaction implements Serializable {
 	public void setReactionType(int reactionType) {
 		this.reactionType = reactionType;
 	}
+
+	/**
+	 * @return the attack time, in milliseconds, of the envelope smoothing the value (0 if there is no smoothing)
+	 */
+	public double getAttack() {
+		return attack;
+	}
+
+	/**
+	 * sets the attack time of the envelope smoothing the value
+	 * @param attack the new attack time, in milliseconds (0 for no smoothing)
+	 */
+	public void setAttack(double attack) {
+		this.attack = Math.max(0, attack);
+	}
+
+	/**
+	 * @return the release time, in milliseconds, of the envelope smoothing the value (0 if there is no smoothing)
+	 */
+	public double getRelease() {
+		return release;
+	}
+
+	/**
+	 * sets the release time of the envelope smoothing the value
+	 * @param release the new release time, in milliseconds (0 for no smoothing)
+	 */
+	public void setRelease(double release) {
+		this.release = Math.max(0, release);
+	}
+
+	/**
+	 * @return whether the component of the sound is compared to its recent range instead of a fixed maximum
+	 */
+	public boolean isNormalized() {
+		return normalized;
+	}
+
+	/**
+	 * sets whether the component of the sound is compared to its recent range instead of a fixed maximum
+	 * @param normalized true to adapt to the loudness of the sound
+	 */
+	public void setNormalized(boolean normalized) {
+		this.normalized = normalized;
+	}
+
+	/**
+	 * @return whether the value of this reaction is smoothed by an attack/release envelope
+	 */
+	public boolean hasEnvelope() {
+		return attack > 0 || release > 0;
+	}
 	
 }
@@ -0,0 +1,607 @@
+package reactions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import audio.AnalysisFrame;
+import audio.LevelNormalizer;
+import audio.TripleBuffer;
+import audio.MultiResolutionAnalyzer;
+
+/**
+ * This class is a flat, compiled version of all the reactions of a project.
+ * Instead of going through every shape, every reaction and a virtual update() call, the reactions are copied into primitive arrays once,
+ * grouped by the component of the sound they react to, and all of them are evaluated in a few tight loops.
+ * The results are written in a property array holding PROPERTY_COUNT values per target (usually per shape).
+ * A reaction shared by several targets (the reactions of a group of shapes) is evaluated once and its value is written to each of them,
+ * plus the offset of the target.
+ * A plan copies the reactions' values when it is compiled, so it must be compiled again whenever the reactions of the project change.
+ * While the sound plays, process() is called from the audio thread for every analysis frame: it advances the attack/release envelopes
+ * and publishes the final property values through a triple buffer, so the JavaFX Application thread only has to copy them into the nodes.
+ * evaluate() computes the values on the calling thread, for when no frame has been processed yet (the sound is paused or the plan was just compiled).
+ * It never reads the envelopes, which belong to the thread calling process(): the smoothed reactions take their raw value,
+ * which is where their envelopes start on the first processed frame anyway.
+ */
+public class ReactionPlan {
+
+	/**
+	 * all the properties of a target that the reactions can set. A SIZE reaction sets both scales
+	 */
+	public static final int SCALE_X = 0, SCALE_Y = 1, COLOR_RED = 2, COLOR_GREEN = 3, COLOR_BLUE = 4, TRANSLATE_X = 5, TRANSLATE_Y = 6, ROTATE = 7, OPACITY = 8;
+	/**
+	 * the number of properties of each target in the property array
+	 */
+	public static final int PROPERTY_COUNT = 9;
+
+	/**
+	 * the components of the sound that can be read without looking at the spectrum. Used as indexes in the scalar source array
+	 */
+	private static final int SCALAR_AMPLITUDE = 0, SCALAR_RMS = 1, SCALAR_PEAK = 2;
+	/**
+	 * the offset added to a scalar index to get the normalized version of the component
+	 */
+	private static final int SCALAR_NORMALIZED = 3;
+
+	/**
+	 * the number of targets in this plan
+	 */
+	private int targetCount;
+
+	/**
+	 * the number of reactions reading a scalar component of the sound. They are the first ones in the arrays
+	 */
+	private int scalarCount;
+	/**
+	 * the index of the end of the frequency reactions in the arrays. They are placed right after the scalar ones
+	 */
+	private int frequencyEnd;
+	/**
+	 * the index of the end of the expression reactions in the arrays. They are placed right after the frequency ones
+	 */
+	private int expressionEnd;
+	/**
+	 * the total number of reactions. The reactions that can't be compiled are placed after the expression ones
+	 */
+	private int reactionCount;
+
+	/**
+	 * the value of each scalar component of the sound for the frame being evaluated, indexed by SCALAR_AMPLITUDE, SCALAR_RMS and SCALAR_PEAK
+	 */
+	private double[] scalarValues = new double[6];
+	/**
+	 * the minimum value of each reaction
+	 */
+	private double[] minValues;
+	/**
+	 * the difference between the maximum and minimum value of each reaction
+	 */
+	private double[] ranges;
+	/**
+	 * for the scalar reactions, the index of the scalar they read (SCALAR_AMPLITUDE, SCALAR_RMS or SCALAR_PEAK, plus SCALAR_NORMALIZED if they are normalized)
+	 */
+	private int[] scalarSources;
+	/**
+	 * for the frequency reactions, the lower and higher bounds of their frequency range, in Hertz
+	 */
+	private float[] lowFreqs, hiFreqs;
+	/**
+	 * for the frequency reactions, the first and last bands of the bass and treble spectrums they read
+	 */
+	private int[] bassLow, bassHigh, trebleLow, trebleHigh;
+	/**
+	 * for the frequency reactions, the part of the frequency range that is read from the bass spectrum (from 0 to 1)
+	 */
+	private float[] bassWeights;
+	/**
+	 * for the frequency reactions, whether they are normalized
+	 */
+	private boolean[] normalizedFreqs;
+	/**
+	 * for the normalized frequency reactions, the first and last bands of the LevelNormalizer covering their frequency range
+	 */
+	private int[] levelLow, levelHigh;
+	/**
+	 * the sample rate for which the spectrum bands were computed
+	 */
+	private volatile float bandsSampleRate = -1;
+	/**
+	 * for the expression reactions, their compiled expression
+	 */
+	private ExpressionFunction[] functions;
+	/**
+	 * the features read by at least one expression, as a bit mask (bit i for the feature i of ExpressionFeatures)
+	 */
+	private int usedFeatures;
+	/**
+	 * the feature slots read by the expressions for the frame being evaluated
+	 */
+	private double[] features = new double[ExpressionFeatures.COUNT];
+	/**
+	 * the reactions that could not be compiled, evaluated through their update method. Indexed from expressionEnd
+	 */
+	private Reaction[] customReactions;
+
+	/**
+	 * the value computed for each reaction during the last evaluation
+	 */
+	private double[] results;
+	/**
+	 * for each write of a result in the property array, the index of the result to write. The writes are in the original order of the reactions
+	 */
+	private int[] writeResults;
+	/**
+	 * for each write of a result in the property array, the index of the property to write to
+	 */
+	private int[] writeProperties;
+	/**
+	 * for each write of a result in the property array, the offset added to the result
+	 */
+	private double[] writeOffsets;
+
+	/**
+	 * the indexes of the reactions smoothed by an attack/release envelope
+	 */
+	private int[] envelopeReactions;
+	/**
+	 * for each smoothed reaction, its attack and release times, in seconds
+	 */
+	private double[] attackTimes, releaseTimes;
+	/**
+	 * for each smoothed reaction, the part of the distance to the new value that is kept after one hop while attacking and releasing
+	 */
+	private double[] attackCoefs, releaseCoefs;
+	/**
+	 * the duration, in seconds, of the hop for which the coefficients were computed
+	 */
+	private double coefsHop = -1;
+	/**
+	 * the current value of each smoothed reaction. Only read and written by the thread calling process()
+	 */
+	private double[] envelopes;
+	/**
+	 * whether the envelopes have received their first value
+	 */
+	private boolean envelopesStarted = false;
+	/**
+	 * the position, in sample frames, of the last frame given to process()
+	 */
+	private long lastEnvelopePosition;
+	/**
+	 * the value of each scalar component of the sound for the frame given to process()
+	 */
+	private double[] processScalarValues = new double[6];
+	/**
+	 * the feature slots read by the expressions for the frame given to process()
+	 */
+	private double[] processFeatures = new double[ExpressionFeatures.COUNT];
+	/**
+	 * the value computed for each reaction by process()
+	 */
+	private double[] processResults;
+	/**
+	 * the property arrays published by process() for the JavaFX Application thread
+	 */
+	private TripleBuffer<double[]> published;
+	/**
+	 * whether process() has published at least one property array
+	 */
+	private volatile boolean hasPublished = false;
+
+	/**
+	 * the value of each property of each target after the last evaluation. NaN means that no reaction sets the property
+	 */
+	private double[] properties;
+
+	/**
+	 * use compile() to construct a plan
+	 */
+	private ReactionPlan() {
+	}
+
+	/**
+	 * compiles the reactions of all the targets into a plan
+	 * @param targets the reactions of each target, in the order in which their properties will appear in the property array
+	 * @return the compiled plan
+	 */
+	public static ReactionPlan compile(List<? extends List<Reaction>> targets) {
+		return compile(targets, null);
+	}
+
+	/**
+	 * compiles the reactions of all the targets into a plan. A reaction object found in the list of several targets is only evaluated once
+	 * @param targets the reactions of each target, in the order in which their properties will appear in the property array
+	 * @param offsets the value added to the results of the reactions of each target, or null to add nothing
+	 * @return the compiled plan
+	 */
+	public static ReactionPlan compile(List<? extends List<Reaction>> targets, double[] offsets) {
+		ReactionPlan plan = new ReactionPlan();
+		plan.targetCount = targets.size();
+
+		//Group the reactions by the component they read, remembering where each one goes
+		ArrayList<Reaction> scalars = new ArrayList<Reaction>();
+		ArrayList<Reaction> frequencies = new ArrayList<Reaction>();
+		ArrayList<Reaction> expressions = new ArrayList<Reaction>();
+		ArrayList<Reaction> customs = new ArrayList<Reaction>();
+		IdentityHashMap<Reaction, Integer> resultIndexes = new IdentityHashMap<Reaction, Integer>(); //The index of the result of each reaction, known once all the reactions are grouped
+		for(List<Reaction> reactions: targets) {
+			for(Reaction reaction: reactions) {
+				if(resultIndexes.containsKey(reaction)) continue; //Shared with a previous target
+				resultIndexes.put(reaction, -1);
+				
+				if(reaction instanceof AmplitudeReaction)
+					scalars.add(reaction);
+				else if(reaction instanceof FrequencyReaction)
+					frequencies.add(reaction);
+				else if(reaction instanceof ExpressionReaction)
+					expressions.add(reaction);
+				else
+					customs.add(reaction);
+			}
+		}
+
+		plan.scalarCount = scalars.size();
+		plan.frequencyEnd = plan.scalarCount + frequencies.size();
+		plan.expressionEnd = plan.frequencyEnd + expressions.size();
+		plan.reactionCount = plan.expressionEnd + customs.size();
+
+		int n = plan.reactionCount;
+		plan.minValues = new double[n];
+		plan.ranges = new double[n];
+		plan.results = new double[n];
+		plan.scalarSources = new int[plan.scalarCount];
+		plan.lowFreqs = new float[frequencies.size()];
+		plan.hiFreqs = new float[frequencies.size()];
+		plan.bassLow = new int[frequencies.size()];
+		plan.bassHigh = new int[frequencies.size()];
+		plan.trebleLow = new int[frequencies.size()];
+		plan.trebleHigh = new int[frequencies.size()];
+		plan.bassWeights = new float[frequencies.size()];
+		plan.normalizedFreqs = new boolean[frequencies.size()];
+		plan.levelLow = new int[frequencies.size()];
+		plan.levelHigh = new int[frequencies.size()];
+		plan.functions = new ExpressionFunction[expressions.size()];
+		plan.customReactions = customs.toArray(new Reaction[customs.size()]);
+
+		for(int i = 0; i < scalars.size(); i++) {
+			AmplitudeReaction reaction = (AmplitudeReaction) scalars.get(i);
+			plan.setValues(i, reaction);
+			switch(reaction.getSource()) {
+			case AmplitudeReaction.SOURCE_RMS:
+				plan.scalarSources[i] = SCALAR_RMS;
+				break;
+			case AmplitudeReaction.SOURCE_PEAK:
+				plan.scalarSources[i] = SCALAR_PEAK;
+				break;
+			default:
+				plan.scalarSources[i] = SCALAR_AMPLITUDE;
+				break;
+			}
+			if(reaction.isNormalized()) plan.scalarSources[i] += SCALAR_NORMALIZED;
+		}
+		for(int i = 0; i < frequencies.size(); i++) {
+			FrequencyReaction reaction = (FrequencyReaction) frequencies.get(i);
+			plan.setValues(plan.scalarCount + i, reaction);
+			plan.lowFreqs[i] = reaction.getMinFreq();
+			plan.hiFreqs[i] = reaction.getMaxFreq();
+			plan.normalizedFreqs[i] = reaction.isNormalized();
+			plan.levelLow[i] = LevelNormalizer.getBandIndex(reaction.getMinFreq());
+			plan.levelHigh[i] = LevelNormalizer.getBandIndex(reaction.getMaxFreq());
+		}
+		for(int i = 0; i < expressions.size(); i++) {
+			ExpressionReaction reaction = (ExpressionReaction) expressions.get(i);
+			plan.setValues(plan.frequencyEnd + i, reaction);
+			plan.functions[i] = reaction.getFunction();
+			plan.usedFeatures |= reaction.getUsedFeatures();
+		}
+		for(int i = 0; i < customs.size(); i++) {
+			plan.setValues(plan.expressionEnd + i, customs.get(i));
+		}
+
+		//List the writes in the original order so that the last reaction of a shape setting a property wins, as in ReactiveShape.update
+		int writeCount = 0;
+		for(List<Reaction> reactions: targets) {
+			for(Reaction reaction: reactions) {
+				writeCount += (reaction.getReactionType() == Reaction.SIZE)? 2: 1;
+			}
+		}
+		plan.writeResults = new int[writeCount];
+		plan.writeProperties = new int[writeCount];
+		plan.writeOffsets = new double[writeCount];
+
+		int scalar = 0, frequency = plan.scalarCount, expression = plan.frequencyEnd, custom = plan.expressionEnd, write = 0;
+		for(int target = 0; target < targets.size(); target++) {
+			int offset = target * PROPERTY_COUNT;
+			double valueOffset = (offsets == null)? 0: offsets[target];
+			for(Reaction reaction: targets.get(target)) {
+				int result = resultIndexes.get(reaction);
+				if(result < 0) { //First time this reaction is found
+					if(reaction instanceof AmplitudeReaction)
+						result = scalar++;
+					else if(reaction instanceof FrequencyReaction)
+						result = frequency++;
+					else if(reaction instanceof ExpressionReaction)
+						result = expression++;
+					else
+						result = custom++;
+					resultIndexes.put(reaction, result);
+				}
+
+				switch(reaction.getReactionType()) {
+				case Reaction.SIZE:
+					plan.writeResults[write] = result;
+					plan.writeOffsets[write] = valueOffset;
+					plan.writeProperties[write++] = offset + SCALE_X;
+					plan.writeResults[write] = result;
+					plan.writeOffsets[write] = valueOffset;
+					plan.writeProperties[write++] = offset + SCALE_Y;
+					break;
+				default:
+					plan.writeResults[write] = result;
+					plan.writeOffsets[write] = valueOffset;
+					plan.writeProperties[write++] = offset + getProperty(reaction.getReactionType());
+					break;
+				}
+			}
+		}
+
+		//Order the envelopes the same way as the results
+		ArrayList<Reaction> ordered = new ArrayList<Reaction>(scalars);
+		ordered.addAll(frequencies);
+		ordered.addAll(expressions);
+		ordered.addAll(customs);
+		int envelopeCount = 0;
+		for(Reaction reaction: ordered) {
+			if(reaction.hasEnvelope()) envelopeCount++;
+		}
+		plan.envelopeReactions = new int[envelopeCount];
+		plan.attackTimes = new double[envelopeCount];
+		plan.releaseTimes = new double[envelopeCount];
+		plan.attackCoefs = new double[envelopeCount];
+		plan.releaseCoefs = new double[envelopeCount];
+		plan.envelopes = new double[envelopeCount];
+		plan.processResults = new double[n];
+		for(int r = 0, e = 0; r < n; r++) {
+			Reaction reaction = ordered.get(r);
+			if(reaction.hasEnvelope()) {
+				plan.envelopeReactions[e] = r;
+				plan.attackTimes[e] = reaction.getAttack() / 1000;
+				plan.releaseTimes[e++] = reaction.getRelease() / 1000;
+			}
+		}
+
+		plan.properties = new double[plan.targetCount * PROPERTY_COUNT];
+		plan.published = new TripleBuffer<double[]>(plan.properties.clone(), plan.properties.clone(), plan.properties.clone());
+		return plan;
+	}
+
+	/**
+	 * copies the minimum value and range of a reaction in the arrays
+	 * @param index the index of the reaction in the arrays
+	 * @param reaction the reaction
+	 */
+	private void setValues(int index, Reaction reaction) {
+		minValues[index] = reaction.getMinValue();
+		ranges[index] = reaction.getMaxValue() - reaction.getMinValue();
+	}
+
+	/**
+	 * @param reactionType a reaction type other than SIZE
+	 * @return the property set by the reaction type
+	 */
+	private static int getProperty(int reactionType) {
+		switch(reactionType) {
+		case Reaction.WIDTH:
+			return SCALE_X;
+		case Reaction.HEIGHT:
+			return SCALE_Y;
+		case Reaction.COLOR_RED:
+			return COLOR_RED;
+		case Reaction.COLOR_GREEN:
+			return COLOR_GREEN;
+		case Reaction.TRANSLATE_X:
+			return TRANSLATE_X;
+		case Reaction.TRANSLATE_Y:
+			return TRANSLATE_Y;
+		case Reaction.ROTATE:
+			return ROTATE;
+		case Reaction.OPACITY:
+			return OPACITY;
+		default:
+			return COLOR_BLUE;
+		}
+	}
+
+	/**
+	 * computes, for each frequency reaction, the spectrum bands matching its frequency range
+	 * @param frame a frame of the analyzed sound
+	 */
+	private synchronized void computeBands(AnalysisFrame frame) {
+		if(frame.getSampleRate() == bandsSampleRate) return; //Already computed by the other thread
+		
+		float crossover = MultiResolutionAnalyzer.CROSSOVER_FREQ;
+		for(int i = 0; i < lowFreqs.length; i++) {
+			float low = lowFreqs[i], hi = hiFreqs[i];
+			bassLow[i] = frame.bassIndex(low);
+			bassHigh[i] = frame.bassIndex(Math.min(hi, crossover));
+			trebleLow[i] = frame.trebleIndex(Math.max(low, crossover));
+			trebleHigh[i] = frame.trebleIndex(hi);
+			if(hi <= crossover)
+				bassWeights[i] = 1;
+			else if(low >= crossover)
+				bassWeights[i] = 0;
+			else
+				bassWeights[i] = (crossover - low) / (hi - low);
+		}
+		bandsSampleRate = frame.getSampleRate();
+	}
+
+	/**
+	 * evaluates all the reactions and updates the property array, for when process() has not published anything yet.
+	 * The smoothed reactions use their raw value: the envelopes are only read and written by the thread calling process()
+	 * @param frame the analysis frame of the sound sample to react to
+	 */
+	public void evaluate(AnalysisFrame frame) {
+		computeResults(frame, scalarValues, features, results);
+		writeProperties(results, properties);
+	}
+
+	/**
+	 * evaluates all the reactions for a new frame, moves the envelope of each smoothed reaction toward its new value
+	 * and publishes the resulting property values (see acquireProperties()).
+	 * Must be called for every analysis frame, always from the same thread
+	 * @param frame the analysis frame of the new sound sample
+	 */
+	public void process(AnalysisFrame frame) {
+		computeResults(frame, processScalarValues, processFeatures, processResults);
+		if(envelopeReactions.length > 0) {
+			advanceEnvelopes(frame);
+			for(int e = 0; e < envelopeReactions.length; e++) {
+				processResults[envelopeReactions[e]] = envelopes[e];
+			}
+		}
+		
+		writeProperties(processResults, published.getWriteBuffer());
+		published.publish();
+		hasPublished = true;
+	}
+
+	/**
+	 * scatters the values of the reactions in a property array, in the original order of the reactions, adding the offset of each target
+	 * @param results the value of each reaction
+	 * @param properties the property array
+	 */
+	private void writeProperties(double[] results, double[] properties) {
+		Arrays.fill(properties, Double.NaN);
+		for(int w = 0; w < writeResults.length; w++) {
+			properties[writeProperties[w]] = results[writeResults[w]] + writeOffsets[w];
+		}
+	}
+
+	/**
+	 * moves the envelope of each smoothed reaction toward the value of the reaction for a new frame
+	 * @param frame the analysis frame of the new sound sample, whose results were just computed in processResults
+	 */
+	private void advanceEnvelopes(AnalysisFrame frame) {
+		long hopSamples = frame.getSamplePosition() - lastEnvelopePosition;
+		lastEnvelopePosition = frame.getSamplePosition();
+		if(!envelopesStarted || hopSamples <= 0 || frame.getSampleRate() == 0) { //First frame or the sound skipped backward: jump to the value
+			for(int e = 0; e < envelopeReactions.length; e++) {
+				envelopes[e] = processResults[envelopeReactions[e]];
+			}
+			envelopesStarted = true;
+			return;
+		}
+		
+		double hop = hopSamples / (double) frame.getSampleRate();
+		if(hop != coefsHop) { //The hop is almost always the same, so the exponentials are rarely computed
+			for(int e = 0; e < envelopeReactions.length; e++) {
+				attackCoefs[e] = (attackTimes[e] == 0)? 0: Math.exp(-hop / attackTimes[e]);
+				releaseCoefs[e] = (releaseTimes[e] == 0)? 0: Math.exp(-hop / releaseTimes[e]);
+			}
+			coefsHop = hop;
+		}
+		
+		for(int e = 0; e < envelopeReactions.length; e++) {
+			int r = envelopeReactions[e];
+			double target = processResults[r];
+			double envelope = envelopes[e];
+			double coef = ((target - envelope) * ranges[r] > 0)? attackCoefs[e]: releaseCoefs[e]; //Attack when moving toward the maximum value
+			envelopes[e] = target + coef * (envelope - target);
+		}
+	}
+
+	/**
+	 * computes the value of every reaction, without smoothing
+	 * @param frame the analysis frame of the sound sample to react to
+	 * @param scalars the array receiving the scalar components of the sound
+	 * @param features the array receiving the features read by the expressions
+	 * @param results the array receiving the value of each reaction
+	 */
+	private void computeResults(AnalysisFrame frame, double[] scalars, double[] features, double[] results) {
+		if(frame.getSampleRate() != bandsSampleRate) {
+			computeBands(frame);
+		}
+
+		//Reactions to a scalar component of the sound
+		scalars[SCALAR_AMPLITUDE] = frame.getAmplitude();
+		scalars[SCALAR_RMS] = frame.getRms();
+		scalars[SCALAR_PEAK] = frame.getPeak();
+		scalars[SCALAR_NORMALIZED + SCALAR_AMPLITUDE] = frame.getNormalizedAmplitude();
+		scalars[SCALAR_NORMALIZED + SCALAR_RMS] = frame.getNormalizedRms();
+		scalars[SCALAR_NORMALIZED + SCALAR_PEAK] = frame.getNormalizedPeak();
+		for(int i = 0; i < scalarCount; i++) {
+			results[i] = minValues[i] + scalars[scalarSources[i]] * ranges[i];
+		}
+
+		//Reactions to a frequency range
+		for(int i = 0, r = scalarCount; r < frequencyEnd; i++, r++) {
+			float weight = bassWeights[i];
+			float avg = 0;
+			if(weight > 0) avg += weight * frame.averageBass(bassLow[i], bassHigh[i]);
+			if(weight < 1) avg += (1 - weight) * frame.averageTreble(trebleLow[i], trebleHigh[i]);
+			double factor;
+			if(normalizedFreqs[i])
+				factor = frame.normalizeBands(levelLow[i], levelHigh[i], avg);
+			else
+				factor = Math.min(FrequencyReaction.MAX_AMPLITUDE, avg) / FrequencyReaction.MAX_AMPLITUDE;
+			results[r] = minValues[r] + factor * ranges[r];
+		}
+
+		//Reactions to an expression. The features are read from the frame once for all of them
+		if(expressionEnd > frequencyEnd) {
+			ExpressionFeatures.fill(frame, features, usedFeatures);
+			for(int i = 0, r = frequencyEnd; r < expressionEnd; i++, r++) {
+				results[r] = minValues[r] + ExpressionReaction.toFactor(functions[i].evaluate(features)) * ranges[r];
+			}
+		}
+
+		//Reactions that can't be compiled
+		for(int r = expressionEnd; r < reactionCount; r++) {
+			results[r] = customReactions[r - expressionEnd].update(frame);
+		}
+	}
+
+	/**
+	 * returns the property values most recently published by process(). The returned array is not modified by process()
+	 * until acquireProperties() is called again. Must always be called from the same thread
+	 * @return the value of each property of each target, laid out like getProperties(), or null if process() has not published anything yet
+	 */
+	public double[] acquireProperties() {
+		return hasPublished? published.acquire(): null;
+	}
+
+	/**
+	 * @return the value of each property of each target after the last evaluation. The properties of the target i start at i * PROPERTY_COUNT.
+	 * NaN means that no reaction sets the property
+	 */
+	public double[] getProperties() {
+		return properties;
+	}
+
+	/**
+	 * @return for each property of each target, laid out like getProperties(), whether a reaction writes it. The others are always NaN
+	 */
+	public boolean[] getWrittenProperties() {
+		boolean[] written = new boolean[targetCount * PROPERTY_COUNT];
+		for(int w = 0; w < writeProperties.length; w++) {
+			written[writeProperties[w]] = true;
+		}
+		return written;
+	}
+
+	/**
+	 * @return the number of targets in this plan
+	 */
+	public int getTargetCount() {
+		return targetCount;
+	}
+
+	/**
+	 * @return the number of reactions in this plan
+	 */
+	public int getReactionCount() {
+		return reactionCount;
+	}
+}
@@ -1,9 +1,17 @@
 package shapes;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import audio.AnalysisFrame;
 import nodes.MainStage;
 import nodes.VideoPane;
 import javafx.event.EventHandler;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.scene.CacheHint;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Ellipse;
@@ -13,6 +21,7 @@ import javafx.scene.shape.Shape;
 import reactions.AmplitudeReaction;
 import reactions.FrequencyReaction;
 import reactions.Reaction;
+import reactions.ReactionPlan;
 
 /**
  * Class that represents all shapes, allows to edit them, add reactions to them and finally to update and render them on the screen.
@@ -23,6 +32,12 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	 * static value of the all the shape types
 	 */
 	public static final int RECTANGLE = 0, CIRCLE = 1, TRIANGLE = 2;
+	/**
+	 * static value of the cache policies: how the reactions of a shape change its node.
+	 * A STATIC shape has no reaction, the reactions of a TRANSFORM_ONLY shape only scale, move, rotate or fade it,
+	 * and the reactions of a FILL_CHANGING shape change its color
+	 */
+	public static final int STATIC = 0, TRANSFORM_ONLY = 1, FILL_CHANGING = 2;
 
 	/**
 	 * the shape type of this shape
@@ -32,6 +47,14 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	 * all the reactions attached to this shape
 	 */
 	private ArrayList<Reaction> reactions = new ArrayList<Reaction>();
+	/**
+	 * the group this shape is a member of, or null if it is not in a group
+	 */
+	private ShapeGroup group;
+	/**
+	 * the value added to the values of the reactions of the group for this shape
+	 */
+	private double groupOffset = 0;
 	/**
 	 * the color of this shape
 	 */
@@ -41,7 +64,7 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	 */
 	private boolean filled;
 	/**
-	 * the border thickness, in pixels, of this shape
+	 * the border thickness, in logical units, of this shape
 	 */
 	private int borderThickness;
 	/**
@@ -49,51 +72,38 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	 */
 	private Color borderColor;
 	/**
-	 * the width, in pixel, of this shape
+	 * the width, in logical units, of this shape
 	 */
 	private double width;
 	/**
-	 * the height, in pixel, of this shape
+	 * the height, in logical units, of this shape
 	 */
 	private double height;
 	/**
-	 * the x position, in pixel, of this shape
+	 * the x position, in logical units, of this shape
 	 */
 	private double xPosition; // The position is centered in all shapes
 	/**
-	 * the y position, in pixel, of this shape
+	 * the y position, in logical units, of this shape
 	 */
 	private double yPosition;
 	/**
 	 * the JavaFX shape that is rendered on the screen
 	 */
 	private Shape fxShape;
-	
 	/**
-	 * the initial width, in pixel, of this shape. Used for scaling
+	 * the cache policy of this shape (STATIC, TRANSFORM_ONLY or FILL_CHANGING)
 	 */
-	private double initWidth;
+	private int cachePolicy = STATIC;
 	/**
-	 * the initial height, in pixel, of this shape. Used for scaling
+	 * the last fill computed from the color reactions. Reused as long as the reactions give the same quantized color
 	 */
-	private double initHeight;
+	private Color reactionFill;
 	/**
-	 * the initial x position, in pixel, of this shape. Used for scaling
+	 * the quantized red, green and blue channels of reactionFill, packed in an int
 	 */
-	private double initX;
-	/**
-	 * the initial y position, in pixel, of this shape. Used for scaling
-	 */
-	private double initY;
+	private int reactionFillRgb;
 	
-	/**
-	 * the initial pressed layout x position, in pixels. Used for drag and drop
-	 */
-	private double initPressedLayoutX;
-	/**
-	 * the initial pressed layout y position, in pixels. Used for drag and drop
-	 */
-	private double initPressedLayoutY;
 	/**
 	 * the initial drag x position, in pixels. Used for drag and drop
 	 */
@@ -103,11 +113,11 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	 */
 	private double initDragY;
 	/**
-	 * the initial pressed x position, in pixels. Used for drag and drop
+	 * the initial pressed x position, in logical units. Used for drag and drop
 	 */
 	private double initPressedXPosition;
 	/**
-	 * the initial pressed y position, in pixels. Used for drag and drop
+	 * the initial pressed y position, in logical units. Used for drag and drop
 	 */
 	private double initPressedYPosition;
 	
@@ -116,43 +126,51 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	 * @param shapeType the shape type
 	 */
 	public ReactiveShape(int shapeType) {
-		this(shapeType, (MainStage.getInstance().getVideoPane().getInnerPane().getWidth() / 2 - 40 / 2) / MainStage.getInstance().getVideoPane().getWidthFactor(),
-				(MainStage.getInstance().getVideoPane().getInnerPane().getHeight() / 2 - 40 / 2) / MainStage.getInstance().getVideoPane().getHeightFactor(),
+		this(shapeType, VideoPane.LOGICAL_WIDTH / 2 - 40 / 2, VideoPane.LOGICAL_HEIGHT / 2 - 40 / 2,
 				40, 40, Color.BLACK, true, 2, Color.LIGHTGRAY);
 	}
 	
 	/**
 	 * constructs a reactive shape with the given parameters
 	 * @param shapeType the shape type
-	 * @param xPosition the x position, in pixels
-	 * @param yPosition the y position, in pixels
-	 * @param width the width, in pixels
-	 * @param height the height, in pixels
+	 * @param xPosition the x position, in logical units
+	 * @param yPosition the y position, in logical units
+	 * @param width the width, in logical units
+	 * @param height the height, in logical units
 	 * @param color the color
 	 * @param filled whether this shape is filled or not
-	 * @param borderThickness the border thickness, in pixels
+	 * @param borderThickness the border thickness, in logical units
 	 * @param borderColor the border color
 	 */
 	public ReactiveShape(int shapeType, double xPosition, double yPosition, double width, double height, Color color, boolean filled, int borderThickness, Color borderColor) {
-		this.xPosition = initX = xPosition;
-		this.yPosition = initY = yPosition;
-		this.width = initWidth = width;
-		this.height = initHeight = height;
+		this.xPosition = xPosition;
+		this.yPosition = yPosition;
+		this.width = width;
+		this.height = height;
 		this.color = color;
 		this.filled = filled;
 		this.borderThickness = borderThickness;
 		this.borderColor = borderColor;
 		this.shapeType = shapeType;
 		
-		scale(); //Creates the JavaFX shape and scales it
+		createNode();
 	}
 	
 	/**
-	 * updates all properties of this shape based on all its reactions
+	 * updates all properties of this shape based on all its reactions and the last analysis frame
 	 */
 	public void update() {
-		for(Reaction reaction: reactions) {
-			double value = reaction.update();
+		update(MainStage.getInstance().getCurrentFrame());
+	}
+	
+	/**
+	 * updates all properties of this shape based on all its reactions
+	 * @param frame the analysis frame of the sound sample to react to
+	 */
+	public void update(AnalysisFrame frame) {
+		double red = Double.NaN, green = Double.NaN, blue = Double.NaN; //The color channels are only combined once all the reactions ran
+		for(Reaction reaction: getReactions()) {
+			double value = reaction.update(frame) + groupOffset;
 			switch(reaction.getReactionType()) {
 			case Reaction.SIZE:
 				fxShape.setScaleX(value);
@@ -165,64 +183,309 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 				fxShape.setScaleY(value);
 				break;
 			case Reaction.COLOR_BLUE:
-				fxShape.setFill(Color.color(((Color)fxShape.getFill()).getRed(), ((Color)fxShape.getFill()).getGreen(), value / 255.0));
+				blue = value;
 				break;
 			case Reaction.COLOR_GREEN:
-				fxShape.setFill(Color.color(((Color)fxShape.getFill()).getRed(), value / 255.0, ((Color)fxShape.getFill()).getBlue()));
+				green = value;
 				break;
 			case Reaction.COLOR_RED:
-				fxShape.setFill(Color.color(value / 255.0, ((Color)fxShape.getFill()).getGreen(), ((Color)fxShape.getFill()).getBlue()));
+				red = value;
+				break;
+			case Reaction.TRANSLATE_X:
+				fxShape.setTranslateX(value);
+				break;
+			case Reaction.TRANSLATE_Y:
+				fxShape.setTranslateY(value);
+				break;
+			case Reaction.ROTATE:
+				fxShape.setRotate(value);
+				break;
+			case Reaction.OPACITY:
+				fxShape.setOpacity(Math.max(0, Math.min(1, value)));
 				break;
 			}
 		}
+		fxShape.setFill(getFill(red, green, blue)); //A single fill, unchanged if the quantized color did not change
 		
-		if(reactions.size() == 0) {
+		if(getReactions().size() == 0) {
 			fxShape.setScaleX(1);
 			fxShape.setScaleY(1);
-			fxShape.setFill(color);
+			fxShape.setTranslateX(0);
+			fxShape.setTranslateY(0);
+			fxShape.setRotate(0);
+			fxShape.setOpacity(1);
 		}
 	}
 	
 	/**
-	 * scales the shapes according to the size of the window
+	 * applies the values computed by a reaction plan to this shape. A property that no reaction sets goes back to its original value
+	 * @param properties the property array of the reaction plan
+	 * @param offset the index of the first property of this shape in the property array
 	 */
-	public void scale() {
-		VideoPane vp = MainStage.getInstance().getVideoPane();
-		width = vp.getWidthFactor() * initWidth;
-		height = vp.getHeightFactor() * initHeight;
+	public void applyProperties(double[] properties, int offset) {
+		double scaleX = properties[offset + ReactionPlan.SCALE_X];
+		double scaleY = properties[offset + ReactionPlan.SCALE_Y];
+		fxShape.setScaleX(Double.isNaN(scaleX)? 1: scaleX);
+		fxShape.setScaleY(Double.isNaN(scaleY)? 1: scaleY);
+		
+		double red = properties[offset + ReactionPlan.COLOR_RED];
+		double green = properties[offset + ReactionPlan.COLOR_GREEN];
+		double blue = properties[offset + ReactionPlan.COLOR_BLUE];
+		//Transforms and opacity don't invalidate the geometry of the shape: they are the cheapest properties to animate
+		double translateX = properties[offset + ReactionPlan.TRANSLATE_X];
+		double translateY = properties[offset + ReactionPlan.TRANSLATE_Y];
+		double rotate = properties[offset + ReactionPlan.ROTATE];
+		double opacity = properties[offset + ReactionPlan.OPACITY];
+		fxShape.setTranslateX(Double.isNaN(translateX)? 0: translateX);
+		fxShape.setTranslateY(Double.isNaN(translateY)? 0: translateY);
+		fxShape.setRotate(Double.isNaN(rotate)? 0: rotate);
+		fxShape.setOpacity(Double.isNaN(opacity)? 1: Math.max(0, Math.min(1, opacity)));
+		
+		fxShape.setFill(getFill(red, green, blue)); //Only one fill per frame, whatever the number of color reactions
+	}
+	
+	/**
+	 * returns the fill of this shape with the values set by the reactions. The color is quantized to 8 bits per channel
+	 * and the last one is kept, so a color that does not change from a frame to the next is neither allocated nor set again on the node
+	 * @param red the red value set by the reactions, from 0 to 255, or NaN if no reaction sets it
+	 * @param green the green value set by the reactions, or NaN
+	 * @param blue the blue value set by the reactions, or NaN
+	 * @return the fill of this shape
+	 */
+	private Color getFill(double red, double green, double blue) {
+		Color fill = filled? color: Color.TRANSPARENT;
+		if(Double.isNaN(red) && Double.isNaN(green) && Double.isNaN(blue)) {
+			return fill;
+		}
+		
+		int r = toChannel(red, fill.getRed()), g = toChannel(green, fill.getGreen()), b = toChannel(blue, fill.getBlue());
+		int rgb = (r << 16) | (g << 8) | b;
+		if(reactionFill == null || rgb != reactionFillRgb) {
+			reactionFill = Color.rgb(r, g, b);
+			reactionFillRgb = rgb;
+		}
+		return reactionFill;
+	}
+	
+	/**
+	 * @param value the value of a color channel set by the reactions, from 0 to 255, or NaN if no reaction sets it
+	 * @param base the value of the channel in the color of the shape, from 0 to 1
+	 * @return the channel quantized between 0 and 255
+	 */
+	private static int toChannel(double value, double base) {
+		double channel = Double.isNaN(value)? base * 255: value;
+		return (int) Math.round(Math.max(0, Math.min(255, channel)));
+	}
+	
+	/**
+	 * draws this shape in a canvas with the values computed by a reaction plan, the same way applyProperties() would render its node
+	 * @param gc the graphics context of the canvas, transformed to logical units
+	 * @param properties the property array of the reaction plan
+	 * @param offset the index of the first property of this shape in the property array
+	 */
+	public void draw(GraphicsContext gc, double[] properties, int offset) {
+		double scaleX = properties[offset + ReactionPlan.SCALE_X];
+		double scaleY = properties[offset + ReactionPlan.SCALE_Y];
+		double translateX = properties[offset + ReactionPlan.TRANSLATE_X];
+		double translateY = properties[offset + ReactionPlan.TRANSLATE_Y];
+		double rotate = properties[offset + ReactionPlan.ROTATE];
+		double opacity = properties[offset + ReactionPlan.OPACITY];
+		
+		gc.save();
+		//Nodes are scaled and rotated around their center
+		gc.translate(xPosition + (Double.isNaN(translateX)? 0: translateX), yPosition + (Double.isNaN(translateY)? 0: translateY));
+		gc.rotate(Double.isNaN(rotate)? 0: rotate);
+		gc.scale(Double.isNaN(scaleX)? 1: scaleX, Double.isNaN(scaleY)? 1: scaleY);
+		gc.setGlobalAlpha(Double.isNaN(opacity)? 1: Math.max(0, Math.min(1, opacity)));
 		
-		xPosition = vp.getWidthFactor() * initX;
-		yPosition = vp.getHeightFactor() * initY;
+		gc.setFill(getFill(properties[offset + ReactionPlan.COLOR_RED], properties[offset + ReactionPlan.COLOR_GREEN], properties[offset + ReactionPlan.COLOR_BLUE]));
+		gc.setStroke(borderColor);
+		gc.setLineWidth(borderThickness);
+		switch(shapeType) {
+		case RECTANGLE:
+			gc.fillRect(-width / 2, -height / 2, width, height);
+			if(borderThickness > 0) gc.strokeRect(-width / 2, -height / 2, width, height);
+			break;
+		case CIRCLE:
+			gc.fillOval(-width / 2, -height / 2, width, height);
+			if(borderThickness > 0) gc.strokeOval(-width / 2, -height / 2, width, height);
+			break;
+		case TRIANGLE:
+			gc.beginPath();
+			gc.moveTo(0, -height / 2);
+			gc.lineTo(-width / 2, height / 2);
+			gc.lineTo(width / 2, height / 2);
+			gc.closePath();
+			gc.fill();
+			if(borderThickness > 0) gc.stroke();
+			break;
+		}
+		gc.restore();
+	}
+	
+	/**
+	 * tests whether a point is inside this shape as drawn by draw(). Used for the hit testing of the canvas
+	 * @param x the x position, in logical units, of the point
+	 * @param y the y position, in logical units, of the point
+	 * @param properties the property array the shape was drawn with
+	 * @param offset the index of the first property of this shape in the property array
+	 * @return whether the point is inside this shape or its border
+	 */
+	public boolean contains(double x, double y, double[] properties, int offset) {
+		double scaleX = properties[offset + ReactionPlan.SCALE_X];
+		double scaleY = properties[offset + ReactionPlan.SCALE_Y];
+		double translateX = properties[offset + ReactionPlan.TRANSLATE_X];
+		double translateY = properties[offset + ReactionPlan.TRANSLATE_Y];
+		double rotate = properties[offset + ReactionPlan.ROTATE];
 		
-		setShapeType(shapeType);
+		//Bring the point back in the coordinates of the shape, centered and before the transforms
+		double dx = x - xPosition - (Double.isNaN(translateX)? 0: translateX);
+		double dy = y - yPosition - (Double.isNaN(translateY)? 0: translateY);
+		double angle = Math.toRadians(Double.isNaN(rotate)? 0: -rotate);
+		double localX = dx * Math.cos(angle) - dy * Math.sin(angle);
+		double localY = dx * Math.sin(angle) + dy * Math.cos(angle);
+		double sx = Double.isNaN(scaleX)? 1: scaleX, sy = Double.isNaN(scaleY)? 1: scaleY;
+		if(sx == 0 || sy == 0) return false;
+		localX /= sx;
+		localY /= sy;
+		
+		double halfWidth = width / 2 + borderThickness / 2.0, halfHeight = height / 2 + borderThickness / 2.0;
+		switch(shapeType) {
+		case RECTANGLE:
+			return Math.abs(localX) <= halfWidth && Math.abs(localY) <= halfHeight;
+		case CIRCLE:
+			return (localX * localX) / (halfWidth * halfWidth) + (localY * localY) / (halfHeight * halfHeight) <= 1;
+		case TRIANGLE: //Between the base and the top, and within the two sides that get closer to the center going up
+			return localY <= halfHeight && localY >= -halfHeight
+					&& Math.abs(localX) <= halfWidth * (localY + halfHeight) / (2 * halfHeight);
+		}
+		return false;
 	}
 	
 	/**
-	 * sets the shape type of this shape
+	 * returns the region that this shape can cover, whatever the values of its reactions. The reactions only give values between
+	 * their minimum and maximum values, so the largest scale, the whole range of the translations and any rotation are taken into account
+	 * @return the bounds, in logical units, of every point this shape can be drawn at
+	 */
+	public Bounds getReach() {
+		double scaleX = 1, scaleY = 1, minTranslateX = 0, maxTranslateX = 0, minTranslateY = 0, maxTranslateY = 0;
+		boolean rotated = false, scaledX = false, scaledY = false, translatedX = false, translatedY = false;
+		for(Reaction reaction: getReactions()) {
+			double min = reaction.getMinValue() + groupOffset, max = reaction.getMaxValue() + groupOffset;
+			double scale = Math.max(Math.abs(min), Math.abs(max));
+			switch(reaction.getReactionType()) {
+			case Reaction.SIZE:
+				scaleX = scaledX? Math.max(scaleX, scale): scale;
+				scaleY = scaledY? Math.max(scaleY, scale): scale;
+				scaledX = scaledY = true;
+				break;
+			case Reaction.WIDTH:
+				scaleX = scaledX? Math.max(scaleX, scale): scale;
+				scaledX = true;
+				break;
+			case Reaction.HEIGHT:
+				scaleY = scaledY? Math.max(scaleY, scale): scale;
+				scaledY = true;
+				break;
+			case Reaction.TRANSLATE_X:
+				minTranslateX = translatedX? Math.min(minTranslateX, Math.min(min, max)): Math.min(min, max);
+				maxTranslateX = translatedX? Math.max(maxTranslateX, Math.max(min, max)): Math.max(min, max);
+				translatedX = true;
+				break;
+			case Reaction.TRANSLATE_Y:
+				minTranslateY = translatedY? Math.min(minTranslateY, Math.min(min, max)): Math.min(min, max);
+				maxTranslateY = translatedY? Math.max(maxTranslateY, Math.max(min, max)): Math.max(min, max);
+				translatedY = true;
+				break;
+			case Reaction.ROTATE:
+				rotated = true;
+				break;
+			}
+		}
+		
+		//Half of the border is drawn outside of the shape
+		double halfWidth = (width / 2 + borderThickness / 2.0) * scaleX, halfHeight = (height / 2 + borderThickness / 2.0) * scaleY;
+		if(rotated) { //Any angle: the circle around the shape
+			halfWidth = halfHeight = Math.hypot(halfWidth, halfHeight);
+		}
+		return new BoundingBox(xPosition + minTranslateX - halfWidth, yPosition + minTranslateY - halfHeight,
+				2 * halfWidth + maxTranslateX - minTranslateX, 2 * halfHeight + maxTranslateY - minTranslateY);
+	}
+	
+	/**
+	 * sets the shape type of this shape and of the other members of its group. The JavaFX shape is only created again if the type changes
 	 * @param shapeType the new shape type
 	 */
 	public void setShapeType(int shapeType) {
+		for(ReactiveShape shape: getLinkedShapes()) { //The members of a group share their style
+			if(shape.fxShape != null && shapeType == shape.shapeType) continue;
+			
+			shape.shapeType = shapeType;
+			shape.createNode();
+		}
+	}
+	
+	/**
+	 * creates the JavaFX shape of the current shape type and replaces the previous one in the video pane
+	 */
+	private void createNode() {
 		MainStage.getInstance().getVideoPane().removeShape(fxShape);
 		
-		this.shapeType = shapeType;
-		//Create the JavaFX shape
 		switch(shapeType) {
 		case RECTANGLE:
-			fxShape = new Rectangle(xPosition - width / 2, yPosition - height / 2, width, height);
+			fxShape = new Rectangle();
 			break;
 		case CIRCLE:
-			fxShape = new Ellipse(xPosition, yPosition, width / 2, height / 2);
+			fxShape = new Ellipse();
 			break;
 		case TRIANGLE:
-			Polygon polygon = new Polygon();
-			polygon.getPoints().addAll(new Double[]{
+			fxShape = new Polygon();
+			break;
+		}
+		applyStyle();
+		applyGeometry();
+		updateCachePolicy();
+		
+		fxShape.setMouseTransparent(true); //The video pane finds the shape under the mouse with its index and forwards the events
+		
+		MainStage.getInstance().getVideoPane().addShape(fxShape);
+		update();
+	}
+	
+	/**
+	 * sets the position and the size of the existing JavaFX shape, in logical units
+	 */
+	private void applyGeometry() {
+		switch(shapeType) {
+		case RECTANGLE:
+			Rectangle rectangle = (Rectangle) fxShape;
+			rectangle.setX(xPosition - width / 2);
+			rectangle.setY(yPosition - height / 2);
+			rectangle.setWidth(width);
+			rectangle.setHeight(height);
+			break;
+		case CIRCLE:
+			Ellipse ellipse = (Ellipse) fxShape;
+			ellipse.setCenterX(xPosition);
+			ellipse.setCenterY(yPosition);
+			ellipse.setRadiusX(width / 2);
+			ellipse.setRadiusY(height / 2);
+			break;
+		case TRIANGLE:
+			((Polygon) fxShape).getPoints().setAll(
 			    xPosition, yPosition - height / 2,
 			    xPosition - width / 2, yPosition + height / 2,
-			    xPosition + width / 2, yPosition + height / 2});
-			fxShape = polygon;
+			    xPosition + width / 2, yPosition + height / 2);
 			break;
 		}
-		
+		MainStage.getInstance().getVideoPane().getShapeIndex().update(this);
+		MainStage.getInstance().getVideoPane().invalidateCanvas();
+	}
+	
+	/**
+	 * sets the fill and the border of the existing JavaFX shape
+	 */
+	private void applyStyle() {
 		if(filled)
 			fxShape.setFill(color);
 		else
@@ -232,21 +495,131 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 			fxShape.setStrokeWidth(borderThickness);
 			fxShape.setStroke(borderColor);
 		}
+		else {
+			fxShape.setStroke(null);
+		}
+		MainStage.getInstance().getVideoPane().invalidateCanvas();
+	}
+	
+	/**
+	 * classifies this shape by the properties its reactions change and sets the caching of its node accordingly.
+	 * Must be called whenever the reactions of this shape change
+	 */
+	public void updateCachePolicy() {
+		boolean scaled = false, rotated = false, colored = false;
+		for(Reaction reaction: getReactions()) {
+			switch(reaction.getReactionType()) {
+			case Reaction.SIZE:
+			case Reaction.WIDTH:
+			case Reaction.HEIGHT:
+				scaled = true;
+				break;
+			case Reaction.ROTATE:
+				rotated = true;
+				break;
+			case Reaction.COLOR_RED:
+			case Reaction.COLOR_GREEN:
+			case Reaction.COLOR_BLUE:
+				colored = true;
+				break;
+			}
+		}
 		
-		fxShape.setOnMousePressed(this);
-		fxShape.setOnMouseDragged(this); //Set the event to move the shape when dragging it
-		fxShape.setOnMouseReleased(this);
-		fxShape.setOnMouseClicked(this);
+		if(colored)
+			cachePolicy = FILL_CHANGING;
+		else if(getReactions().size() > 0)
+			cachePolicy = TRANSFORM_ONLY;
+		else
+			cachePolicy = STATIC;
+		applyCachePolicy(scaled, rotated);
+	}
+	
+	/**
+	 * sets the caching of the JavaFX shape according to the cache policy. A cached node is rasterized once to a bitmap,
+	 * and the bitmap is only transformed when the reactions scale, rotate, move or fade it. The fill of a FILL_CHANGING shape would
+	 * invalidate the bitmap every frame, so its node is not cached. Nothing is cached when the caching is turned off in the main stage.
+	 * A bitmap scaled up by a reaction may look slightly blurry: it is the price of speed. The scale of the video pane, however, is taken
+	 * into account: the video pane drops the bitmaps when the window is resized (see suspendCache())
+	 * @param scaled whether a reaction scales the shape
+	 * @param rotated whether a reaction rotates the shape
+	 */
+	private void applyCachePolicy(boolean scaled, boolean rotated) {
+		if(cachePolicy == FILL_CHANGING || !MainStage.getInstance().isShapeCaching()) {
+			fxShape.setCache(false);
+			return;
+		}
 		
-		MainStage.getInstance().getVideoPane().addShape(fxShape);
-		update();
+		fxShape.setCache(true);
+		if(scaled && rotated)
+			fxShape.setCacheHint(CacheHint.SCALE_AND_ROTATE);
+		else if(scaled)
+			fxShape.setCacheHint(CacheHint.SCALE);
+		else if(rotated)
+			fxShape.setCacheHint(CacheHint.ROTATE);
+		else
+			fxShape.setCacheHint(CacheHint.DEFAULT); //Moving and fading a bitmap never needs to rasterize it again
+	}
+	
+	/**
+	 * drops the cached bitmap of the node until the next call to updateCachePolicy(). The bitmap would otherwise be kept,
+	 * stretched, when the scale of the video pane changes. Turning the cache back on in the same pulse would keep the old bitmap,
+	 * so the video pane waits for the size of the window to settle before calling updateCachePolicy()
+	 */
+	public void suspendCache() {
+		fxShape.setCache(false);
 	}
 	
 	/**
-	 * @return all the reactions linked to this shape
+	 * @return the cache policy of this shape (STATIC, TRANSFORM_ONLY or FILL_CHANGING)
+	 */
+	public int getCachePolicy() {
+		return cachePolicy;
+	}
+	
+	/**
+	 * @return all the reactions linked to this shape. The reactions of a member of a group are the reactions of the group
 	 */
 	public ArrayList<Reaction> getReactions() {
-		return reactions;
+		return (group != null)? group.getReactions(): reactions;
+	}
+	
+	/**
+	 * @return the group this shape is a member of, or null if it is not in a group
+	 */
+	public ShapeGroup getGroup() {
+		return group;
+	}
+	
+	/**
+	 * @return the value added to the values of the reactions of the group for this shape
+	 */
+	public double getGroupOffset() {
+		return groupOffset;
+	}
+	
+	/**
+	 * makes this shape a member of a group or takes it out of its group. Called by ShapeGroup
+	 * @param group the new group, or null to leave the current one
+	 * @param groupOffset the value added to the values of the reactions of the group for this shape
+	 */
+	void setGroup(ShapeGroup group, double groupOffset) {
+		if(group == null && this.group != null) { //Keep reacting the same way, with reactions of its own
+			reactions = new ArrayList<Reaction>(this.group.getReactions());
+		}
+		this.group = group;
+		this.groupOffset = groupOffset;
+		
+		updateCachePolicy();
+		MainStage.getInstance().getVideoPane().getShapeIndex().update(this);
+		MainStage.getInstance().invalidateReactionPlan();
+		update();
+	}
+	
+	/**
+	 * @return the shapes sharing the style of this shape: the members of its group, or only this shape if it is not in a group
+	 */
+	private List<ReactiveShape> getLinkedShapes() {
+		return (group != null)? group.getMembers(): Collections.singletonList(this);
 	}
 	
 	/**
@@ -254,7 +627,7 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	 */
 	public ArrayList<AmplitudeReaction> getAmplitudeReactions() {
 		ArrayList<AmplitudeReaction> amps = new ArrayList<AmplitudeReaction>();
-		for(Reaction r: reactions) {
+		for(Reaction r: getReactions()) {
 			if(r instanceof AmplitudeReaction) amps.add((AmplitudeReaction) r);
 		}
 		
@@ -266,7 +639,7 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	 */
 	public ArrayList<FrequencyReaction> getFrequencyReactions() {
 		ArrayList<FrequencyReaction> freqs = new ArrayList<FrequencyReaction>();
-		for(Reaction r: reactions) {
+		for(Reaction r: getReactions()) {
 			if(r instanceof FrequencyReaction) freqs.add((FrequencyReaction) r);
 		}
 		
@@ -278,7 +651,12 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	 * @param reaction the reaction to add
 	 */
 	public void addReaction(Reaction reaction) {
-		reactions.add(reaction);
+		getReactions().add(reaction);
+		for(ReactiveShape shape: getLinkedShapes()) {
+			shape.updateCachePolicy();
+			MainStage.getInstance().getVideoPane().getShapeIndex().update(shape); //The reaction may move the shape further
+		}
+		MainStage.getInstance().invalidateReactionPlan();
 	}
 	
 	/**
@@ -286,7 +664,12 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	 * @param reaction the reaction to remove
 	 */
 	public void removeReaction(Reaction reaction) {
-		reactions.remove(reaction);
+		getReactions().remove(reaction);
+		for(ReactiveShape shape: getLinkedShapes()) {
+			shape.updateCachePolicy();
+			MainStage.getInstance().getVideoPane().getShapeIndex().update(shape);
+		}
+		MainStage.getInstance().invalidateReactionPlan();
 	}
 
 	/**
@@ -297,12 +680,15 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	}
 
 	/**
-	 * sets the color of this shape
+	 * sets the color of this shape and of the other members of its group
 	 * @param color the new color
 	 */
 	public void setColor(Color color) {
-		this.color = color;
-		setShapeType(shapeType);
+		for(ReactiveShape shape: getLinkedShapes()) { //The members of a group share their style
+			shape.color = color;
+			shape.applyStyle();
+			shape.update(); //The reactions may change the fill
+		}
 	}
 
 	/**
@@ -313,12 +699,15 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	}
 
 	/**
-	 * sets whether this shape is filled or not
+	 * sets whether this shape and the other members of its group are filled or not
 	 * @param filled whether this shape is filled or not
 	 */
 	public void setFilled(boolean filled) {
-		this.filled = filled;
-		setShapeType(shapeType);
+		for(ReactiveShape shape: getLinkedShapes()) { //The members of a group share their style
+			shape.filled = filled;
+			shape.applyStyle();
+			shape.update(); //The reactions may change the fill
+		}
 	}
 
 	/**
@@ -329,42 +718,47 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	}
 
 	/**
-	 * sets the border thickness of this shape
+	 * sets the border thickness of this shape and of the other members of its group
 	 * @param borderThickness the new border thickness
 	 */
 	public void setBorderThickness(int borderThickness) {
-		this.borderThickness = borderThickness;
-		setShapeType(shapeType);
+		for(ReactiveShape shape: getLinkedShapes()) { //The members of a group share their style
+			shape.borderThickness = borderThickness;
+			shape.applyStyle();
+			shape.update(); //The reactions may change the fill
+		}
 	}
 
 	/**
-	 * @return the x position, in pixels, of this shape
+	 * @return the x position, in logical units, of this shape
 	 */
 	public double getXPosition() {
 		return xPosition;
 	}
 
 	/**
-	 * sets the x position, in pixels, of this shape
+	 * sets the x position, in logical units, of this shape
 	 * @param xPosition the new x position
 	 */
 	public void setXPosition(double xPosition) {
 		this.xPosition = xPosition;
+		applyGeometry();
 	}
 
 	/**
-	 * @return the y position, in pixels, of this shape
+	 * @return the y position, in logical units, of this shape
 	 */
 	public double getYPosition() {
 		return yPosition;
 	}
 
 	/**
-	 * sets the y position, in pixels, of this shape
+	 * sets the y position, in logical units, of this shape
 	 * @param yPosition the new y position
 	 */
 	public void setYPosition(double yPosition) {
 		this.yPosition = yPosition;
+		applyGeometry();
 	}
 
 	/**
@@ -382,35 +776,39 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	}
 
 	/**
-	 * @return the width, in pixels, of this shape
+	 * @return the width, in logical units, of this shape
 	 */
 	public double getWidth() {
 		return width;
 	}
 
 	/**
-	 * sets the width, in pixels, of this shape
+	 * sets the width, in logical units, of this shape and of the other members of its group
 	 * @param width the new width
 	 */
 	public void setWidth(double width) {
-		initWidth = width / MainStage.getInstance().getVideoPane().getWidthFactor();
-		scale();
+		for(ReactiveShape shape: getLinkedShapes()) { //The members of a group share their size
+			shape.width = width;
+			shape.applyGeometry();
+		}
 	}
 
 	/**
-	 * @return the height, in pixels, of this shape
+	 * @return the height, in logical units, of this shape
 	 */
 	public double getHeight() {
 		return height;
 	}
 
 	/**
-	 * sets the height, in pixels, of this shape
+	 * sets the height, in logical units, of this shape and of the other members of its group
 	 * @param height the new height
 	 */
 	public void setHeight(double height) {
-		initHeight = height / MainStage.getInstance().getVideoPane().getHeightFactor();
-		scale();
+		for(ReactiveShape shape: getLinkedShapes()) { //The members of a group share their size
+			shape.height = height;
+			shape.applyGeometry();
+		}
 	}
 
 	/**
@@ -421,12 +819,15 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 	}
 
 	/**
-	 * sets the border color of this shape
+	 * sets the border color of this shape and of the other members of its group
 	 * @param borderColor the new border color
 	 */
 	public void setBorderColor(Color borderColor) {
-		this.borderColor = borderColor;
-		setShapeType(shapeType);
+		for(ReactiveShape shape: getLinkedShapes()) { //The members of a group share their style
+			shape.borderColor = borderColor;
+			shape.applyStyle();
+			shape.update(); //The reactions may change the fill
+		}
 	}
 
 	/* (non-Javadoc)
@@ -437,25 +838,17 @@ public class ReactiveShape implements EventHandler<MouseEvent> {
 		if(e.getEventType() == MouseEvent.MOUSE_PRESSED) { //Should be triggered before the drag, sets the last x and y positions
 			initDragX = e.getSceneX();
 			initDragY = e.getSceneY();
-			initPressedLayoutX = fxShape.getLayoutX();
-			initPressedLayoutY = fxShape.getLayoutY();
 			initPressedXPosition = xPosition;
 			initPressedYPosition = yPosition;
 		}
 		else if(e.getEventType() == MouseEvent.MOUSE_DRAGGED) {
-			xPosition = initPressedLayoutX + e.getSceneX() - initDragX;
-			yPosition = initPressedLayoutY + e.getSceneY() - initDragY;
-			
-			fxShape.setLayoutX(xPosition);
-			fxShape.setLayoutY(yPosition);
-			
-			//Reset the initX and Y so that the scale works fine
+			//The mouse moves in pixels, the shape in logical units
 			VideoPane vp = MainStage.getInstance().getVideoPane();
-			initX = (initPressedXPosition + e.getSceneX() - initDragX) / vp.getWidthFactor();
-			initY = (initPressedYPosition + e.getSceneY() - initDragY) / vp.getHeightFactor();
+			xPosition = initPressedXPosition + (e.getSceneX() - initDragX) / vp.getWidthFactor();
+			yPosition = initPressedYPosition + (e.getSceneY() - initDragY) / vp.getHeightFactor();
+			applyGeometry();
 		}
 		else if(e.getEventType() == MouseEvent.MOUSE_RELEASED) {
-			scale();
 			MainStage.getInstance().selectShape(this);
 		}
 	}
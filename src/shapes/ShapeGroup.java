@@ -0,0 +1,131 @@
+package shapes;
+
+import java.util.ArrayList;
+
+import reactions.Reaction;
+
+/**
+ * This class represents a group of shapes that are instances of the same template: they share their reactions and their style
+ * (shape type, size, colors and border) and only differ by their position and by an offset added to the values of the reactions.
+ * The reactions of a group are the same objects for all its members, so the reaction plan evaluates each of them once per frame
+ * and writes its value to every member. Editing the style or the reactions of a member edits the whole group.
+ * The members are always next to each other in the list of shapes of the project, so a group is saved as a template and an array of instances.
+ */
+public class ShapeGroup {
+
+	/**
+	 * the number of values of each instance in the array returned by getInstances(): x position, y position and offset
+	 */
+	public static final int INSTANCE_VALUES = 3;
+
+	/**
+	 * the reactions shared by all the members
+	 */
+	private ArrayList<Reaction> reactions;
+	/**
+	 * the members of the group, in the order of the project
+	 */
+	private ArrayList<ReactiveShape> members = new ArrayList<ReactiveShape>();
+
+	/**
+	 * constructs an empty group
+	 * @param reactions the reactions shared by the members
+	 */
+	public ShapeGroup(ArrayList<Reaction> reactions) {
+		this.reactions = reactions;
+	}
+
+	/**
+	 * creates a group from a shape and copies of it. The shape keeps its place and becomes the first member, and its reactions become the
+	 * reactions of the group. The copies are not added to the project: the caller adds them after the shape
+	 * @param template the shape to repeat. It must not be in a group already
+	 * @param count the number of members of the group, including the template
+	 * @param stepX the distance, in logical units, between the x positions of two members
+	 * @param stepY the distance, in logical units, between the y positions of two members
+	 * @param offsetStep the difference between the offsets of two members
+	 * @return the new group
+	 */
+	public static ShapeGroup repeat(ReactiveShape template, int count, double stepX, double stepY, double offsetStep) {
+		ShapeGroup group = new ShapeGroup(new ArrayList<Reaction>(template.getReactions()));
+		group.addMember(template, 0);
+		for(int i = 1; i < count; i++) {
+			ReactiveShape copy = new ReactiveShape(template.getShapeType(), template.getXPosition() + i * stepX, template.getYPosition() + i * stepY,
+					template.getWidth(), template.getHeight(), template.getColor(), template.isFilled(), template.getBorderThickness(), template.getBorderColor());
+			group.addMember(copy, i * offsetStep);
+		}
+		return group;
+	}
+
+	/**
+	 * creates a group of new shapes from a template and an array of instances, as written in a file
+	 * @param template a shape giving the style of the members. It is used as the first member
+	 * @param reactions the reactions shared by the members
+	 * @param instances the x position, y position and offset of each member (see getInstances())
+	 * @return the new group
+	 */
+	public static ShapeGroup create(ReactiveShape template, ArrayList<Reaction> reactions, double[] instances) {
+		ShapeGroup group = new ShapeGroup(reactions);
+		for(int i = 0; i < instances.length / INSTANCE_VALUES; i++) {
+			double x = instances[i * INSTANCE_VALUES], y = instances[i * INSTANCE_VALUES + 1];
+			ReactiveShape member = template;
+			if(i > 0) {
+				member = new ReactiveShape(template.getShapeType(), x, y, template.getWidth(), template.getHeight(),
+						template.getColor(), template.isFilled(), template.getBorderThickness(), template.getBorderColor());
+			}
+			else {
+				template.setXPosition(x);
+				template.setYPosition(y);
+			}
+			group.addMember(member, instances[i * INSTANCE_VALUES + 2]);
+		}
+		return group;
+	}
+
+	/**
+	 * adds a shape at the end of the group
+	 * @param shape the new member. Its own reactions are replaced by the reactions of the group
+	 * @param offset the value added to the values of the reactions of the group for this member
+	 */
+	public void addMember(ReactiveShape shape, double offset) {
+		members.add(shape);
+		shape.setGroup(this, offset);
+	}
+
+	/**
+	 * removes a shape from the group. The shape keeps a copy of the reactions of the group
+	 * @param shape the member to remove
+	 */
+	public void removeMember(ReactiveShape shape) {
+		if(members.remove(shape)) {
+			shape.setGroup(null, 0);
+		}
+	}
+
+	/**
+	 * @return the reactions shared by all the members
+	 */
+	public ArrayList<Reaction> getReactions() {
+		return reactions;
+	}
+
+	/**
+	 * @return the members of the group, in the order of the project
+	 */
+	public ArrayList<ReactiveShape> getMembers() {
+		return members;
+	}
+
+	/**
+	 * @return the x position, y position and offset of each member, one after the other, to save the group compactly
+	 */
+	public double[] getInstances() {
+		double[] instances = new double[members.size() * INSTANCE_VALUES];
+		for(int i = 0; i < members.size(); i++) {
+			ReactiveShape member = members.get(i);
+			instances[i * INSTANCE_VALUES] = member.getXPosition();
+			instances[i * INSTANCE_VALUES + 1] = member.getYPosition();
+			instances[i * INSTANCE_VALUES + 2] = member.getGroupOffset();
+		}
+		return instances;
+	}
+}
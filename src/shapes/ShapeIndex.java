@@ -0,0 +1,242 @@
+package shapes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+import javafx.geometry.Bounds;
+
+/**
+ * This class is a spatial index of the shapes of the project: a uniform grid over the logical space in which each cell lists the shapes that may cover it.
+ * A point or a region is resolved by looking only at the shapes of the cells it touches, instead of walking all the shapes.
+ * The index stores the reach of each shape (see ReactiveShape.getReach()), which covers every place the reactions can move the shape to,
+ * so it only changes when a shape is edited, never while the sound plays. The shapes are kept in the order of the project, from the back to the front.
+ */
+public class ShapeIndex {
+
+	/**
+	 * the size, in logical units, of the side of a cell
+	 */
+	public static final double CELL_SIZE = 80;
+
+	/**
+	 * the number of columns and rows of the grid
+	 */
+	private int columns, rows;
+	/**
+	 * the shapes that may cover each cell, row by row
+	 */
+	private ArrayList<ArrayList<ReactiveShape>> cells;
+	/**
+	 * the entry of each shape in the index
+	 */
+	private IdentityHashMap<ReactiveShape, Entry> entries = new IdentityHashMap<ReactiveShape, Entry>();
+	/**
+	 * all the shapes of the index, from the back to the front
+	 */
+	private ArrayList<ReactiveShape> shapes = new ArrayList<ReactiveShape>();
+	/**
+	 * sorts the shapes from the front to the back
+	 */
+	private Comparator<ReactiveShape> frontToBack = new Comparator<ReactiveShape>() {
+		@Override
+		public int compare(ReactiveShape shape1, ReactiveShape shape2) {
+			return Integer.compare(entries.get(shape2).position, entries.get(shape1).position);
+		}
+	};
+
+	/**
+	 * constructs an empty index
+	 * @param width the width, in logical units, of the space covered by the grid
+	 * @param height the height, in logical units, of the space covered by the grid
+	 */
+	public ShapeIndex(double width, double height) {
+		columns = (int) Math.ceil(width / CELL_SIZE);
+		rows = (int) Math.ceil(height / CELL_SIZE);
+		cells = new ArrayList<ArrayList<ReactiveShape>>(columns * rows);
+		for(int i = 0; i < columns * rows; i++) {
+			cells.add(new ArrayList<ReactiveShape>());
+		}
+	}
+
+	/**
+	 * adds a shape in front of all the others
+	 * @param shape the shape to add
+	 */
+	public void add(ReactiveShape shape) {
+		if(entries.containsKey(shape)) return;
+
+		Entry entry = new Entry();
+		entry.position = shapes.size();
+		entries.put(shape, entry);
+		shapes.add(shape);
+		insert(shape, entry);
+	}
+
+	/**
+	 * removes a shape from the index
+	 * @param shape the shape to remove
+	 */
+	public void remove(ReactiveShape shape) {
+		Entry entry = entries.remove(shape);
+		if(entry == null) return;
+
+		erase(shape, entry);
+		shapes.remove(entry.position);
+		for(int i = entry.position; i < shapes.size(); i++) { //The shapes in front move back by one
+			entries.get(shapes.get(i)).position = i;
+		}
+	}
+
+	/**
+	 * moves a shape to the cells covered by its current reach. Called whenever the shape or its reactions are edited
+	 * @param shape the shape that changed. Nothing happens if it is not in the index
+	 */
+	public void update(ReactiveShape shape) {
+		Entry entry = entries.get(shape);
+		if(entry == null) return;
+
+		erase(shape, entry);
+		insert(shape, entry);
+	}
+
+	/**
+	 * removes all the shapes and adds the given ones
+	 * @param shapes the new shapes, from the back to the front
+	 */
+	public void setAll(ArrayList<ReactiveShape> shapes) {
+		clear();
+		for(ReactiveShape shape: shapes) {
+			add(shape);
+		}
+	}
+
+	/**
+	 * removes all the shapes from the index
+	 */
+	public void clear() {
+		for(ArrayList<ReactiveShape> cell: cells) {
+			cell.clear();
+		}
+		entries.clear();
+		shapes.clear();
+	}
+
+	/**
+	 * finds the shapes whose reach contains a point
+	 * @param x the x position, in logical units, of the point
+	 * @param y the y position, in logical units, of the point
+	 * @return the shapes that may be drawn at this point, from the front to the back
+	 */
+	public ArrayList<ReactiveShape> query(double x, double y) {
+		ArrayList<ReactiveShape> found = new ArrayList<ReactiveShape>();
+		for(ReactiveShape shape: cells.get(getRow(y) * columns + getColumn(x))) {
+			if(entries.get(shape).reach.contains(x, y)) found.add(shape);
+		}
+		Collections.sort(found, frontToBack);
+		return found;
+	}
+
+	/**
+	 * finds the shapes whose reach intersects a region, for example to select all the shapes in a rectangle
+	 * @param region the region, in logical units
+	 * @return the shapes that may be drawn in this region, from the front to the back
+	 */
+	public ArrayList<ReactiveShape> query(Bounds region) {
+		ArrayList<ReactiveShape> found = new ArrayList<ReactiveShape>();
+		int minColumn = getColumn(region.getMinX()), maxColumn = getColumn(region.getMaxX());
+		int minRow = getRow(region.getMinY()), maxRow = getRow(region.getMaxY());
+		for(int row = minRow; row <= maxRow; row++) {
+			for(int column = minColumn; column <= maxColumn; column++) {
+				for(ReactiveShape shape: cells.get(row * columns + column)) {
+					if(!found.contains(shape) && entries.get(shape).reach.intersects(region)) found.add(shape);
+				}
+			}
+		}
+		Collections.sort(found, frontToBack);
+		return found;
+	}
+
+	/**
+	 * @param shape a shape of the index
+	 * @return the position of the shape in the index, from 0 for the shape at the back, or -1 if it is not in the index
+	 */
+	public int getPosition(ReactiveShape shape) {
+		Entry entry = entries.get(shape);
+		return (entry == null)? -1: entry.position;
+	}
+
+	/**
+	 * @return the number of shapes in the index
+	 */
+	public int size() {
+		return shapes.size();
+	}
+
+	/**
+	 * adds a shape to the cells covered by its current reach
+	 * @param shape the shape
+	 * @param entry the entry of the shape, which gets the new reach and cells
+	 */
+	private void insert(ReactiveShape shape, Entry entry) {
+		entry.reach = shape.getReach();
+		entry.minColumn = getColumn(entry.reach.getMinX());
+		entry.maxColumn = getColumn(entry.reach.getMaxX());
+		entry.minRow = getRow(entry.reach.getMinY());
+		entry.maxRow = getRow(entry.reach.getMaxY());
+		for(int row = entry.minRow; row <= entry.maxRow; row++) {
+			for(int column = entry.minColumn; column <= entry.maxColumn; column++) {
+				cells.get(row * columns + column).add(shape);
+			}
+		}
+	}
+
+	/**
+	 * removes a shape from the cells it was added to
+	 * @param shape the shape
+	 * @param entry the entry of the shape
+	 */
+	private void erase(ReactiveShape shape, Entry entry) {
+		for(int row = entry.minRow; row <= entry.maxRow; row++) {
+			for(int column = entry.minColumn; column <= entry.maxColumn; column++) {
+				cells.get(row * columns + column).remove(shape);
+			}
+		}
+	}
+
+	/**
+	 * @param x an x position, in logical units
+	 * @return the column of the cell containing this position. Positions outside of the grid go to the first or the last column
+	 */
+	private int getColumn(double x) {
+		return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / CELL_SIZE)));
+	}
+
+	/**
+	 * @param y a y position, in logical units
+	 * @return the row of the cell containing this position. Positions outside of the grid go to the first or the last row
+	 */
+	private int getRow(double y) {
+		return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / CELL_SIZE)));
+	}
+
+	/**
+	 * This class holds what the index knows about a shape
+	 */
+	private static class Entry {
+
+		/**
+		 * the position of the shape, from 0 for the shape at the back
+		 */
+		private int position;
+		/**
+		 * the reach of the shape when it was last updated
+		 */
+		private Bounds reach;
+		/**
+		 * the cells covered by the reach
+		 */
+		private int minColumn, maxColumn, minRow, maxRow;
+	}
+}